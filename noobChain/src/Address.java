@@ -0,0 +1,97 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+
+/* ADDRESS:
+    A public key as the chain uses it: the owner of outputs, and the sender and recipient of transactions. Everything
+    the chain needs from a key is worked out once, when the Address is made, instead of every time it's used:
+
+        - the X.509 encoding, key.getEncoded(), which the key rebuilds from scratch on every call. These are the bytes
+          transaction ids, output ids and signed data are hashed from
+        - a 20 byte fingerprint, the first 20 bytes of the SHA-256 of the encoding
+
+    Two Addresses are equal when they hold the same key, whether or not they're the same object. Comparing keys by
+    reference, as isMine() used to, stops working as soon as a key is read back from disk or the network and becomes
+    a second object for the same key. equals() compares the fingerprints first, which tells different keys apart in a
+    few instructions, and hashCode() is taken straight from the fingerprint.
+*/
+public final class Address {
+
+    public static final int FINGERPRINT_LENGTH = 20;
+
+    private final PublicKey publicKey;
+    private final byte[] encoded;
+    private final byte[] fingerprint;
+
+    // The fingerprint as numbers, for equals() and hashCode().
+    private final long fingerprint0;
+    private final long fingerprint1;
+    private final int fingerprint2;
+
+    private Address(PublicKey publicKey) {
+        this.publicKey = publicKey;
+        this.encoded = publicKey.getEncoded();
+
+        this.fingerprint = Arrays.copyOf(CryptoEngine.sha256(encoded), FINGERPRINT_LENGTH);
+
+        long word0 = 0, word1 = 0;
+        int word2 = 0;
+        for(int i = 0; i < 8; i++) {
+            word0 = (word0 << 8) | (fingerprint[i] & 0xff);
+            word1 = (word1 << 8) | (fingerprint[8 + i] & 0xff);
+        }
+        for(int i = 16; i < FINGERPRINT_LENGTH; i++) {
+            word2 = (word2 << 8) | (fingerprint[i] & 0xff);
+        }
+        fingerprint0 = word0;
+        fingerprint1 = word1;
+        fingerprint2 = word2;
+    }
+
+    public static Address of(@NotNull PublicKey publicKey) {
+        return new Address(publicKey);
+    }
+
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    public byte[] getEncoded() {
+        return encoded.clone();
+    }
+
+    public byte[] getFingerprint() {
+        return fingerprint.clone();
+    }
+
+    // The encoding itself, for callers in this package that only read it.
+    byte[] encoded() {
+        return encoded;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(this == other) return true;
+        if(!(other instanceof Address)) return false;
+
+        Address address = (Address) other;
+        return fingerprint0 == address.fingerprint0 && fingerprint1 == address.fingerprint1
+                && fingerprint2 == address.fingerprint2 && Arrays.equals(encoded, address.encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (fingerprint0 >>> 32);
+    }
+
+    // The fingerprint in hex, short enough for logs.
+    @Override
+    public String toString() {
+        StringBuilder hex = new StringBuilder(FINGERPRINT_LENGTH * 2);
+        for(byte b : fingerprint) {
+            hex.append(Character.forDigit((b >>> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
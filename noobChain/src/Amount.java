@@ -0,0 +1,40 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigDecimal;
+
+/* AMOUNTS:
+    Every amount on the chain is a long counting base units, COIN of them to a coin, the way Bitcoin counts satoshis.
+    Amounts used to be floats, and a float can't even hold 0.1 exactly: sums came out differently depending on the order
+    they were added in, the validator compared them with != and now and then rejected a perfectly good transaction, and
+    a float has only 24 bits of precision, so large balances quietly lost their small change.
+
+    Longs add up exactly in any order. Sums go through Math.addExact(), so an overflow throws instead of wrapping
+    around to a negative balance. Amounts are hashed and signed as 8 fixed-width bytes, never as text.
+
+    Coins only appear at the edges, in what people type and read: of() parses "12.5" into base units and format() turns
+    base units back into "12.5".
+*/
+public final class Amount {
+
+    public static final long COIN = 100_000_000L; // base units in one coin
+    public static final int DECIMALS = 8;
+
+    private Amount() {
+    }
+
+    // Whole coins in base units.
+    public static long coins(long coins) {
+        return Math.multiplyExact(coins, COIN);
+    }
+
+    // A decimal number of coins, e.g. "0.1", in base units. Throws if it has more than DECIMALS decimals or overflows.
+    public static long of(@NotNull String coins) {
+        return new BigDecimal(coins).movePointRight(DECIMALS).longValueExact();
+    }
+
+    // Base units as a decimal number of coins, with at least one decimal: 4000000000 is "40.0".
+    public static String format(long units) {
+        BigDecimal coins = BigDecimal.valueOf(units, DECIMALS).stripTrailingZeros();
+        return coins.scale() > 0 ? coins.toPlainString() : coins.setScale(1).toPlainString();
+    }
+}
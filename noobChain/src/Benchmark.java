@@ -0,0 +1,207 @@
+import com.google.gson.GsonBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* BENCHMARK HARNESS:
+    A small throughput harness in the spirit of JMH. JMH itself can't be used here: the classes it generates live in
+    named packages, and Java doesn't let code in a named package see the classes of this project, which sit in the
+    default package.
+
+    A benchmark is a Setup that prepares an Iteration outside of the timer. The harness runs warmup iterations first
+    so the JIT has compiled the hot paths, then measurement iterations, each lasting at least 'iterationMillis'. The
+    score of an iteration is operations per second; the reported score is the mean over the measurement iterations
+    and the error is their standard deviation. Results are written in the same JSON layout JMH uses for -rf json so
+    the usual tooling can compare runs.
+*/
+public class Benchmark {
+
+    // A batch of timed work, returns how many operations it performed.
+    public interface Iteration {
+        int run() throws Exception;
+    }
+
+    // Untimed preparation of the next batch of work.
+    public interface Setup {
+        Iteration prepare() throws Exception;
+    }
+
+    private static final long FLUSH_MILLIS = 1000; // longest wait for the event log to catch up
+
+    private static volatile int sink; // results are folded in here so the JIT can't drop the work that produced them
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationMillis;
+    private final List<Result> results = new ArrayList<>();
+
+    public Benchmark(int warmupIterations, int measurementIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    // Keeps a benchmark result alive, the equivalent of JMH's Blackhole.consume().
+    public static void consume(Object o) {
+        sink ^= System.identityHashCode(o);
+    }
+
+    public static void consume(long value) {
+        sink ^= (int) (value ^ (value >>> 32));
+    }
+
+    // Runs 'task' with the chain's event log turned down, for building fixtures without flooding the console.
+    public static void quietly(Runnable task) {
+        EventLog.Level level = quieten();
+
+        try {
+            task.run();
+        } finally {
+            restore(level);
+        }
+    }
+
+    public Result run(String name, Map<String, Object> params, Setup setup) {
+        /* FUNCTION BREAKDOWN:
+            The code under test (mineBlock, addTransaction, isChainValid and the rest) logs through NoobChain.log,
+            whose writer thread would print every event while the benchmark runs. So the log is turned down to errors
+            for the run, the same way LoadGenerator does it, and flushed on the way in and out: whatever was logged
+            before is written before the run starts, and errors from the run are written before the result is. The
+            messages are still built by the callers, exactly as they are in production.
+
+            Each iteration keeps asking the Setup for fresh work and running it until the iteration has spent at least
+            iterationMillis inside the timed part. Only the time spent in Iteration.run() counts.
+         */
+        EventLog.Level level = quieten();
+
+        double[] scores = new double[measurementIterations];
+        try {
+            for(int i = 0; i < warmupIterations; i++) {
+                iterate(setup);
+            }
+            for(int i = 0; i < measurementIterations; i++) {
+                scores[i] = iterate(setup);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Benchmark " + name + " failed", e);
+        } finally {
+            restore(level);
+        }
+
+        Result result = new Result(name, params, scores);
+        results.add(result);
+
+        System.out.println(result);
+        return result;
+    }
+
+    // Flushes NoobChain.log and lowers it to errors, unless -Dnoobchain.log asks for a level. Returns the level it had.
+    private static EventLog.Level quieten() {
+        EventLog.Level level = NoobChain.log.getLevel();
+
+        NoobChain.log.flush(FLUSH_MILLIS);
+        if(System.getProperty("noobchain.log") == null) NoobChain.log.setLevel(EventLog.Level.ERROR);
+
+        return level;
+    }
+
+    // Writes out what was logged while quiet, then puts the level back.
+    private static void restore(EventLog.Level level) {
+        NoobChain.log.flush(FLUSH_MILLIS);
+        NoobChain.log.setLevel(level);
+    }
+
+    private double iterate(Setup setup) throws Exception {
+        long elapsed = 0;
+        long operations = 0;
+
+        while(elapsed < iterationMillis * 1_000_000L) {
+            Iteration iteration = setup.prepare();
+
+            long start = System.nanoTime();
+            operations += iteration.run();
+            elapsed += System.nanoTime() - start;
+        }
+
+        return operations * 1_000_000_000.0 / elapsed;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    // All results so far in JMH's JSON result format.
+    public String toJson() {
+        List<Map<String, Object>> json = new ArrayList<>(results.size());
+
+        for(Result result : results) {
+            json.add(result.toJson(warmupIterations, measurementIterations, iterationMillis));
+        }
+
+        return new GsonBuilder().setPrettyPrinting().create().toJson(json) + "\n";
+    }
+
+    public static class Result {
+
+        public final String name;
+        public final Map<String, Object> params;
+        public final double[] scores; // operations per second, one per measurement iteration
+
+        Result(String name, Map<String, Object> params, double[] scores) {
+            this.name = name;
+            this.params = new LinkedHashMap<>(params);
+            this.scores = scores;
+        }
+
+        public double getScore() {
+            double total = 0;
+            for(double score : scores) total += score;
+            return scores.length == 0 ? 0 : total / scores.length;
+        }
+
+        // Standard deviation of the iteration scores.
+        public double getError() {
+            if(scores.length < 2) return 0;
+
+            double mean = getScore();
+            double squares = 0;
+            for(double score : scores) squares += (score - mean) * (score - mean);
+
+            return Math.sqrt(squares / (scores.length - 1));
+        }
+
+        // The result as one entry of JMH's JSON, params as Strings like JMH writes them.
+        Map<String, Object> toJson(int warmupIterations, int measurementIterations, long iterationMillis) {
+            Map<String, String> params = new LinkedHashMap<>();
+            for(Map.Entry<String, Object> param : this.params.entrySet()) {
+                params.put(param.getKey(), String.valueOf(param.getValue()));
+            }
+
+            Map<String, Object> primaryMetric = new LinkedHashMap<>();
+            primaryMetric.put("score", getScore());
+            primaryMetric.put("scoreError", getError());
+            primaryMetric.put("scoreUnit", "ops/s");
+            primaryMetric.put("rawData", new double[][] {scores});
+
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("benchmark", name);
+            json.put("mode", "thrpt");
+            json.put("threads", 1);
+            json.put("forks", 0);
+            json.put("warmupIterations", warmupIterations);
+            json.put("measurementIterations", measurementIterations);
+            json.put("measurementTime", iterationMillis + " ms");
+            json.put("params", params);
+            json.put("primaryMetric", primaryMetric);
+
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %-50s %14.3f +- %10.3f ops/s", name, params, getScore(), getError());
+        }
+    }
+}
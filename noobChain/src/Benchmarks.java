@@ -0,0 +1,295 @@
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/* BENCHMARK SUITE:
+    Throughput benchmarks for the hot paths of the chain: hashing, Merkle roots, mining, ECDSA signing and
+    verification (with and without the signature cache), transaction processing and full chain validation. Run it
+    with:
+
+        java Benchmarks [filter=<regex>] [warmup=3] [iterations=5] [time=1000] [out=benchmark-results.json]
+                        [seed=42] [txPerBlock=1,16,256] [chainLength=10,100] [utxoSetSize=1000,100000]
+                        [difficulty=1,2,3] [engine=bc,jdk]
+
+    Every list parameter runs the benchmarks that use it once per value. Workloads are built with ChainFixture from
+    the seed, so two runs with the same arguments measure the same chains and wallets. The results are written as
+    JSON to 'out' so they can be compared between releases.
+
+    sign, verify and keyGen run once per CryptoEngine in 'engine', each with keys of its own, which is how to tell
+    which provider is fastest on a given machine. Everything else runs on the engine picked by -Dnoobchain.crypto.
+*/
+public class Benchmarks {
+
+    private static final int BATCH = 64; // operations per prepared batch for benchmarks that consume their input
+
+    private final Map<String, String> options = new HashMap<>();
+    private final Pattern filter;
+    private final long seed;
+    private final Benchmark benchmark;
+
+    private Benchmarks(String[] args) {
+        options.put("filter", ".*");
+        options.put("warmup", "3");
+        options.put("iterations", "5");
+        options.put("time", "1000");
+        options.put("out", "benchmark-results.json");
+        options.put("seed", "42");
+        options.put("txPerBlock", "1,16,256");
+        options.put("chainLength", "10,100");
+        options.put("utxoSetSize", "1000,100000");
+        options.put("difficulty", "1,2,3");
+        options.put("engine", "bc,jdk");
+
+        for(String arg : args) {
+            int split = arg.indexOf('=');
+            if(split < 0 || !options.containsKey(arg.substring(0, split))) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        filter = Pattern.compile(options.get("filter"));
+        seed = Long.parseLong(options.get("seed"));
+        benchmark = new Benchmark(Integer.parseInt(options.get("warmup")), Integer.parseInt(options.get("iterations")),
+                Long.parseLong(options.get("time")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+
+        Benchmarks suite = new Benchmarks(args);
+        suite.runAll();
+
+        Files.write(Paths.get(suite.options.get("out")), suite.benchmark.toJson().getBytes("UTF-8"));
+        System.out.println("\nResults written to " + suite.options.get("out"));
+    }
+
+    private void runAll() {
+        if(enabled("sha256")) sha256();
+        if(enabled("headerHash")) headerHash();
+        if(enabled("merkleRoot")) for(int txPerBlock : ints("txPerBlock")) merkleRoot(txPerBlock);
+        if(enabled("mineBlock")) for(int difficulty : ints("difficulty")) mineBlock(difficulty);
+        if(enabled("sign")) for(CryptoEngine engine : engines()) sign(engine);
+        if(enabled("verify")) for(CryptoEngine engine : engines()) verify(engine);
+        if(enabled("keyGen")) for(CryptoEngine engine : engines()) keyGen(engine);
+        if(enabled("verifyCached")) verifyCached();
+        if(enabled("processTransaction")) for(int utxoSetSize : ints("utxoSetSize")) processTransaction(utxoSetSize);
+        if(enabled("getBalance")) for(int utxoSetSize : ints("utxoSetSize")) getBalance(utxoSetSize);
+        if(enabled("isChainValid")) {
+            for(int chainLength : ints("chainLength")) {
+                for(int txPerBlock : ints("txPerBlock")) isChainValid(chainLength, txPerBlock);
+            }
+        }
+    }
+
+    private void sha256() {
+        String input = StringUtil.applySha256("previous") + ChainFixture.GENESIS_TIMESTAMP + 12345 + StringUtil.applySha256("merkle");
+
+        benchmark.run("sha256", params(), () -> () -> {
+            Benchmark.consume(StringUtil.applySha256(input));
+            return 1;
+        });
+    }
+
+    private void headerHash() {
+        HeaderHasher header = new HeaderHasher(StringUtil.applySha256("previous"), StringUtil.applySha256("merkle"), ChainFixture.GENESIS_TIMESTAMP);
+        int[] nonce = {0};
+
+        benchmark.run("headerHash", params(), () -> () -> {
+            for(int i = 0; i < BATCH; i++) {
+                header.hash(nonce[0]++);
+            }
+            Benchmark.consume(header);
+            return BATCH;
+        });
+    }
+
+    private void merkleRoot(int txPerBlock) {
+        ChainFixture fixture = new ChainFixture(seed);
+        Benchmark.quietly(() -> fixture.chain(2, txPerBlock, 1));
+        Block block = NoobChain.blockchain.get(1);
+
+        benchmark.run("merkleRoot", params("txPerBlock", txPerBlock), () -> () -> {
+            Benchmark.consume(StringUtil.getMerkleRoot(block.transactions));
+            return 1;
+        });
+    }
+
+    private void mineBlock(int difficulty) {
+        String previousHash = StringUtil.applySha256("previous" + seed);
+        long[] timeStamp = {ChainFixture.GENESIS_TIMESTAMP};
+
+        benchmark.run("mineBlock", params("difficulty", difficulty), () -> {
+            Block block = new Block(previousHash);
+            block.timeStamp = timeStamp[0]++; // a new header every time, the same sequence every run
+
+            return () -> {
+                block.mineBlock(difficulty);
+                Benchmark.consume(block.hash);
+                return 1;
+            };
+        });
+    }
+
+    private void sign(CryptoEngine engine) {
+        Wallet wallet = walletOn(engine);
+        byte[] data = new Transaction(wallet.address, wallet.address, Amount.COIN, null).getSignedData();
+
+        benchmark.run("sign", params("engine", engine), () -> () -> {
+            Benchmark.consume(engine.sign(wallet.privateKey, data));
+            return 1;
+        });
+    }
+
+    private void verify(CryptoEngine engine) {
+        Wallet wallet = walletOn(engine);
+        byte[] data = new Transaction(wallet.address, wallet.address, Amount.COIN, null).getSignedData();
+        byte[] signature = signature(engine, wallet, data);
+
+        benchmark.run("verify", params("engine", engine), () -> () -> {
+            Benchmark.consume(engine.verify(wallet.publicKey, data, signature));
+            return 1;
+        });
+    }
+
+    private void keyGen(CryptoEngine engine) {
+        benchmark.run("keyGen", params("engine", engine), () -> () -> {
+            Benchmark.consume(engine.generateKeyPair(null));
+            return 1;
+        });
+    }
+
+    // A seeded wallet with keys made by 'engine', whichever engine is in use for the rest of the suite.
+    private Wallet walletOn(CryptoEngine engine) {
+        CryptoEngine previous = CryptoEngine.get();
+        CryptoEngine.use(engine);
+        try {
+            return new Wallet(seed);
+        } finally {
+            CryptoEngine.use(previous);
+        }
+    }
+
+    private static byte[] signature(CryptoEngine engine, Wallet wallet, byte[] data) {
+        try {
+            return engine.sign(wallet.privateKey, data);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void verifyCached() {
+        ChainFixture fixture = new ChainFixture(seed);
+        Benchmark.quietly(() -> fixture.genesis(Amount.coins(1_000), 1));
+        Transaction transaction = fixture.payment(fixture.bank, fixture.wallets[0], Amount.COIN);
+        transaction.verifySignature(); // the one real verification, every call after it hits the cache
+
+        benchmark.run("verifyCached", params(), () -> () -> {
+            Benchmark.consume(transaction.verifySignature());
+            return 1;
+        });
+    }
+
+    private void processTransaction(int utxoSetSize) {
+        ChainFixture fixture = new ChainFixture(seed);
+        Benchmark.quietly(() -> {
+            fixture.genesis(Amount.coins(1_000_000), 1);
+            fixture.fillUTXOs(utxoSetSize);
+        });
+
+        List<Transaction> previous = new ArrayList<>();
+
+        benchmark.run("processTransaction", params("utxoSetSize", utxoSetSize), () -> {
+            // Every payment leaves an output behind. Taking the last batch's back out keeps the set at utxoSetSize, plus
+            // the funding outputs the next batch is about to spend, instead of growing over the run.
+            for(Transaction transaction : previous) {
+                for(TransactionOutput output : transaction.outputs) {
+                    NoobChain.UTXOs.remove(output.id);
+                }
+            }
+            previous.clear();
+
+            List<Transaction> batch = new ArrayList<>(BATCH);
+            for(int i = 0; i < BATCH; i++) {
+                batch.add(fixture.payment(fixture.randomWallet(), fixture.randomWallet(), Amount.coins(1 + fixture.random.nextInt(10))));
+            }
+            previous.addAll(batch);
+
+            return () -> {
+                for(Transaction transaction : batch) {
+                    Benchmark.consume(transaction.processTransaction());
+                }
+                return batch.size();
+            };
+        });
+    }
+
+    private void getBalance(int utxoSetSize) {
+        ChainFixture fixture = new ChainFixture(seed);
+        Benchmark.quietly(() -> {
+            fixture.genesis(Amount.coins(1_000_000), 1);
+            fixture.fillUTXOs(utxoSetSize);
+        });
+
+        benchmark.run("getBalance", params("utxoSetSize", utxoSetSize), () -> () -> {
+            Benchmark.consume(fixture.randomWallet().getBalance());
+            return 1;
+        });
+    }
+
+    private void isChainValid(int chainLength, int txPerBlock) {
+        ChainFixture fixture = new ChainFixture(seed);
+        Benchmark.quietly(() -> fixture.chain(chainLength, txPerBlock, 1));
+
+        benchmark.run("isChainValid", params("chainLength", chainLength, "txPerBlock", txPerBlock), () -> {
+            NoobChain.validator.invalidate(); // measure a full validation, not the checkpointed shortcut
+            NoobChain.signatureCache.clear(); // with every signature verified for real
+
+            return () -> {
+                Benchmark.consume(NoobChain.isChainValid());
+                return 1;
+            };
+        });
+    }
+
+    private boolean enabled(String name) {
+        return filter.matcher(name).matches();
+    }
+
+    private List<CryptoEngine> engines() {
+        List<CryptoEngine> engines = new ArrayList<>();
+
+        for(String name : options.get("engine").split(",")) {
+            engines.add(CryptoEngine.forName(name.trim()));
+        }
+
+        return engines;
+    }
+
+    private int[] ints(String option) {
+        String[] values = options.get(option).split(",");
+        int[] ints = new int[values.length];
+
+        for(int i = 0; i < values.length; i++) {
+            ints[i] = Integer.parseInt(values[i].trim());
+        }
+
+        return ints;
+    }
+
+    private static Map<String, Object> params(Object... keysAndValues) {
+        Map<String, Object> params = new LinkedHashMap<>();
+
+        for(int i = 0; i + 1 < keysAndValues.length; i += 2) {
+            params.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+
+        return params;
+    }
+}
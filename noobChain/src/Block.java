@@ -1,5 +1,11 @@
+import org.jetbrains.annotations.NotNull;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
 
 public class Block {
 
@@ -27,6 +33,7 @@ public class Block {
     */
     public String merkleRoot;
     public ArrayList<Transaction> transactions = new ArrayList<>(); // Our data in the transaction will be a simple message.
+    private final MerkleTree merkleTree = new MerkleTree(); // kept in step with 'transactions' as they're added
     public long timeStamp; // As number of milliseconds since 1/1/1970.("Unix epoch")
 
     /* NONCE:
@@ -59,6 +66,10 @@ public class Block {
         this.hash = calculateHash(); // Making sure we do this after we set the other values.
     }
 
+    // Empty block for decoders, which fill in every field themselves.
+    Block() {
+    }
+
     // Calculate new hash based on blocks contents
     public String calculateHash() {
         /* FUNCTION BREAKDOWN:
@@ -67,10 +78,10 @@ public class Block {
 
             The calculateHash() method takes the following steps to calculate the hash value:
 
-            Concatenates the previous block's hash value, the timestamp of the current block, the nonce value, and the
-            Merkle root of the block's transactions into a single string.
-            Applies the SHA-256 hashing algorithm to the concatenated string to produce a 256-bit hash value.
-            Returns the hash value as a string.
+            Lays out the previous block's hash value, the Merkle root of the block's transactions, the timestamp of the
+            current block and the nonce value in a fixed 76 byte binary header (see HeaderHasher for the layout).
+            Applies the SHA-256 hashing algorithm to the header to produce a 256-bit hash value.
+            Returns the hash value as a hex string.
 
             SHA-256 (Secure Hash Algorithm 256-bit) is a cryptographic hash function that takes an input of arbitrary
             length and produces a fixed-size 256-bit hash value. It is one of the most widely used hash functions in
@@ -90,17 +101,19 @@ public class Block {
             merkleRoot is the root of a Merkle tree that is used to store and verify the transactions in the block.
             The Merkle root is calculated by hashing all the individual transaction hashes in the tree.
 
-            By concatenating these values and hashing them using the SHA-256 algorithm, the calculateHash() method
-            produces a unique hash value that represents the contents of the block. This hash value is used to verify
-            the integrity of the block and prevent any tampering with its contents.
+            By laying these values out in a fixed binary header and hashing it using the SHA-256 algorithm, the
+            calculateHash() method produces a unique hash value that represents the contents of the block. This hash
+            value is used to verify the integrity of the block and prevent any tampering with its contents.
 
          */
-        return StringUtil.applySha256(
-                previousHash +
-                        Long.toString(timeStamp) +
-                        Integer.toString(nonce) +
-                        merkleRoot
-        );
+        return calculateHash(previousHash, timeStamp, nonce, merkleRoot);
+    }
+
+    // Calculate the hash for a candidate header without touching the block, so mining workers can share it.
+    public static String calculateHash(String previousHash, long timeStamp, int nonce, String merkleRoot) {
+        HeaderHasher header = new HeaderHasher(previousHash, merkleRoot, timeStamp);
+        header.hash(nonce);
+        return header.getHash();
     }
 
     // Increases nonce value until hash target is reached.
@@ -110,15 +123,15 @@ public class Block {
             method is to mine a block by repeatedly calculating the block's hash until it satisfies a certain difficulty
             level.
 
-            First, the method calculates the Merkle root of the block's transactions using the StringUtil.getMerkleRoot
-            method. The Merkle root is a summary hash of all the transactions in the block.
-
-            Next, the method sets a target string that consists of difficulty number of leading zeros. This is the
-            target that the block's hash needs to match or exceed to be considered valid.
+            First, the method sets the Merkle root of the block's transactions from getMerkleRoot(). The Merkle root is
+            a summary hash of all the transactions in the block; the tree behind it is updated as transactions are
+            added, so this usually costs nothing.
 
-            The method then enters a loop that increments a nonce variable and recalculates the block's hash until the
-            hash's first difficulty characters match the target. This process is called proof-of-work, and it requires
-            a lot of computational effort to find a valid hash.
+            The method then enters a loop that increments a nonce variable and rehashes the block header until the
+            hash starts with difficulty zero hex characters, i.e. difficulty * 4 zero bits. This process is called
+            proof-of-work, and it requires a lot of computational effort to find a valid hash. The constant part of the
+            header is hashed only once (see HeaderHasher), and the target is checked on the raw digest, so the loop
+            doesn't build any Strings until a valid hash is found.
 
             Once a valid hash is found, the loop exits, and the method prints a message indicating that the block has
             been mined, along with its hash.
@@ -126,13 +139,55 @@ public class Block {
             Overall, the mineBlock method is an important component of the blockchain's consensus algorithm that helps
             ensure the integrity and security of the blockchain.
          */
-        merkleRoot = StringUtil.getMerkleRoot(transactions); // while mining the blk, set the merkelRoot
-        String target = StringUtil.getDificultyString(difficulty); // Create a string with difficulty * "0"
-        while(!hash.substring( 0, difficulty).equals(target)) {
+        merkleRoot = getMerkleRoot(); // while mining the blk, set the merkelRoot
+        HeaderHasher header = new HeaderHasher(this);
+        int targetBits = HeaderHasher.getTargetBits(difficulty); // difficulty * "0" in hex is difficulty * 4 zero bits
+        long start = System.nanoTime();
+        long tried = 1;
+        while(!header.meetsTarget(nonce, targetBits)) {
             nonce ++;
-            hash = calculateHash();
+            tried ++;
+        }
+        hash = header.getHash();
+        Miner.record(tried, System.nanoTime() - start);
+        NoobChain.log.blockMined("Block Mined!!! : " + hash);
+    }
+
+    // Merkle root of the current transactions, the same value StringUtil.getMerkleRoot() gives.
+    public String getMerkleRoot() {
+        /* FUNCTION BREAKDOWN:
+            addTransaction() appends every transaction it accepts to the Merkle tree, so normally the tree already
+            matches the list and this just reads its root.
+
+            The transactions list is public though, and decoders and tests fill it in directly. So the tree's leaves are
+            first compared to the transaction ids by reference, which is cheap next to hashing. From the first leaf that
+            doesn't match, the tree is truncated and the remaining ids are appended again.
+         */
+        int matching = 0;
+        int common = Math.min(merkleTree.size(), transactions.size());
+        while(matching < common && merkleTree.getLeaf(matching) == transactions.get(matching).transactionId) {
+            matching++;
+        }
+
+        if(matching < merkleTree.size()) merkleTree.truncate(matching);
+        for(int t = matching; t < transactions.size(); t++) {
+            merkleTree.append(transactions.get(t).transactionId);
+        }
+
+        return merkleTree.getRoot();
+    }
+
+    // Proof that the transaction at 'index' is in this block, or null if the Merkle root doesn't cover it.
+    public MerkleProof getMerkleProof(int index) {
+        getMerkleRoot(); // brings the tree up to date with the transactions
+        return merkleTree.getProof(index);
+    }
+
+    public MerkleProof getMerkleProof(String transactionId) {
+        for(int t = 0; t < transactions.size(); t++) {
+            if(transactions.get(t).transactionId.equals(transactionId)) return getMerkleProof(t);
         }
-        System.out.println("Block Mined!!! : " + hash);
+        return null;
     }
 
     // Add transactions to this block
@@ -167,17 +222,145 @@ public class Block {
 
             if((!transaction.processTransaction())) {
 
-                System.out.println("Transaction failed to process. Discarded.");
+                NoobChain.log.debug("Transaction failed to process. Discarded."); // processTransaction() logged why
 
                 return false;
             }
         }
 
         transactions.add(transaction);
+        merkleTree.append(transaction.transactionId);
 
-        System.out.println("Transaction Successfully added to Block");
+        NoobChain.log.transactionAccepted("Transaction Successfully added to Block");
 
         return true;
     }
 
+    // Adds a batch of transactions at once, the statuses are in the same order as the transactions.
+    public List<TransactionStatus> addTransactions(@NotNull List<Transaction> batch) {
+        /* FUNCTION BREAKDOWN:
+            The same checks addTransaction() makes through processTransaction(), rearranged so a big batch doesn't pay
+            for them one transaction at a time, and with a status for each transaction instead of console messages.
+
+            1. Every signature is verified first, spread over the common pool. That's the expensive part, and it doesn't
+               depend on the order of the transactions or on the UTXO set.
+
+            2. Then one pass in order checks the inputs. An input may be an output in the UTXO set or an output of an
+               earlier transaction in the batch, and nothing in the batch may spend an output that an earlier one already
+               spent. The inputs must add up to at least NoobChain.minimumTransaction and to at least the value sent.
+               Accepted transactions get their id and outputs here, but the UTXO set isn't touched yet.
+
+            3. The UTXO set is updated with a single UTXOSet.spend() call: every output the batch spent is removed and
+               every output it created that wasn't spent again within the batch is added. If another thread spent one of
+               the inputs since step 2, spend() changes nothing; the accepted transactions are reset and step 2 runs
+               again against the set as it is now, which rejects the ones that lost their inputs.
+
+            4. The accepted transactions are added to the block and the Merkle tree, in batch order.
+
+            Transactions in the genesis block aren't processed, just like with addTransaction().
+         */
+        int count = batch.size();
+        TransactionStatus[] statuses = new TransactionStatus[count];
+
+        if("0".equals(previousHash)) {
+            for(int t = 0; t < count; t++) {
+                Transaction transaction = batch.get(t);
+                statuses[t] = transaction == null ? TransactionStatus.NULL : TransactionStatus.ACCEPTED;
+                if(transaction != null) {
+                    transactions.add(transaction);
+                    merkleTree.append(transaction.transactionId);
+                }
+            }
+            return Arrays.asList(statuses);
+        }
+
+        boolean[] signed = new boolean[count];
+        IntStream.range(0, count).parallel().forEach(t -> {
+            Transaction transaction = batch.get(t);
+            signed[t] = transaction != null && transaction.verifySignature();
+        });
+
+        ArrayList<String> spent = new ArrayList<>();
+        ArrayList<TransactionOutput> created = new ArrayList<>();
+
+        while(true) {
+            HashMap<String, Integer> spentBy = new HashMap<>(); // output id -> index of the transaction spending it
+            HashMap<String, TransactionOutput> createdHere = new HashMap<>(); // outputs of accepted transactions
+            spent.clear();
+
+            for(int t = 0; t < count; t++) {
+                statuses[t] = admit(batch, t, signed[t], spentBy, createdHere, spent);
+            }
+
+            created.clear();
+            for(TransactionOutput output : createdHere.values()) {
+                if(!spentBy.containsKey(output.id)) created.add(output);
+            }
+
+            if(NoobChain.UTXOs.spend(spent, created)) break;
+
+            for(int t = 0; t < count; t++) {
+                if(statuses[t].isAccepted()) batch.get(t).discardOutputs(); // lost a race for an input, check them all again
+            }
+        }
+
+        for(int t = 0; t < count; t++) {
+            if(!statuses[t].isAccepted()) continue;
+
+            Transaction transaction = batch.get(t);
+            transactions.add(transaction);
+            merkleTree.append(transaction.transactionId);
+        }
+
+        for(TransactionStatus status : statuses) {
+            Transaction.statusCounters[status.ordinal()].increment();
+        }
+
+        return Arrays.asList(statuses);
+    }
+
+    // Step 2 of addTransactions() for the transaction at 't'.
+    private static TransactionStatus admit(List<Transaction> batch, int t, boolean signed, HashMap<String, Integer> spentBy,
+                                           HashMap<String, TransactionOutput> createdHere, ArrayList<String> spent) {
+        Transaction transaction = batch.get(t);
+
+        if(transaction == null) return TransactionStatus.NULL;
+        if(transaction.inputs == null || transaction.inputs.isEmpty()) return TransactionStatus.MISSING_INPUTS;
+        if(transaction.value <= 0) return TransactionStatus.INVALID_VALUE;
+        if(!signed) return TransactionStatus.INVALID_SIGNATURE;
+
+        long inputsValue = 0;
+        for(int i = 0; i < transaction.inputs.size(); i++) {
+            TransactionInput input = transaction.inputs.get(i);
+
+            Integer spender = spentBy.get(input.transactionOutputId);
+            if(spender != null) return batch.get(spender) == transaction ? TransactionStatus.DUPLICATE : TransactionStatus.DOUBLE_SPEND;
+            for(int j = 0; j < i; j++) {
+                if(transaction.inputs.get(j).transactionOutputId.equals(input.transactionOutputId)) return TransactionStatus.DOUBLE_SPEND;
+            }
+
+            TransactionOutput output = createdHere.get(input.transactionOutputId);
+            if(output == null) output = NoobChain.UTXOs.get(input.transactionOutputId);
+            if(output == null) return TransactionStatus.MISSING_INPUTS;
+
+            input.UTXO = output;
+            inputsValue = Math.addExact(inputsValue, output.value);
+        }
+
+        if(inputsValue < NoobChain.minimumTransaction) return TransactionStatus.INPUTS_TOO_SMALL;
+        if(inputsValue < transaction.value) return TransactionStatus.INSUFFICIENT_FUNDS;
+
+        transaction.createOutputs();
+
+        for(TransactionInput input : transaction.inputs) {
+            spentBy.put(input.transactionOutputId, t);
+            if(!createdHere.containsKey(input.transactionOutputId)) spent.add(input.transactionOutputId); // only what's in the set now
+        }
+        for(TransactionOutput output : transaction.outputs) {
+            createdHere.put(output.id, output);
+        }
+
+        return TransactionStatus.ACCEPTED;
+    }
+
 }
@@ -0,0 +1,463 @@
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/* BLOCK CODEC:
+    A compact, versioned binary encoding for blocks, transactions and their inputs and outputs, used by BlockStore and
+    meant for sending blocks between nodes. Compared to the JSON the objects used to be dumped as:
+
+        - hashes and ids are 32 raw bytes instead of 64 hex characters
+        - counts and lengths are varints, one byte for anything under 128
+        - public keys are written once per block in a key table, as compressed EC points (25 bytes on prime192v1)
+          instead of 75 byte X.509 structures, and referenced everywhere else by their index in the table
+        - an output's parent transaction id is left out when it is the transaction the output belongs to
+
+    BLOCK LAYOUT:
+
+        byte      version          VERSION
+        byte      flags            BLOCK_HASH_NULL, MERKLE_ROOT_NULL, MERKLE_ROOT_EMPTY
+        hash      hash             unless BLOCK_HASH_NULL
+        hash      previousHash
+        hash      merkleRoot       unless MERKLE_ROOT_NULL or MERKLE_ROOT_EMPTY
+        long      timeStamp
+        int       nonce
+        keys      key table        varint count, then per key: byte format, varint length, bytes
+        varint    transaction count, then the transactions
+
+    TRANSACTION LAYOUT:
+
+        byte      flags            ID_NULL, HAS_SIGNATURE, HAS_INPUTS
+        hash      transactionId    unless ID_NULL
+        varint    sender, reciepient  indexes into the key table
+        varlong   value            in base units
+        bytes     signature        varint length then bytes, if HAS_SIGNATURE
+        varint    input count, then per input: hash transactionOutputId, byte 1 + the spent output or byte 0, if HAS_INPUTS
+        varint    output count, then per output: byte flags, hash id, varint reciepient, varlong value, hash parent
+                  (the parent only without PARENT_IS_TRANSACTION)
+
+    OUTPUT SET LAYOUT (see UTXOSnapshot):
+
+        byte      version          VERSION
+        keys      key table        the owners of the outputs
+        varint    output count, then the outputs as above, every one with its parent
+
+    Hashes must be 64 lowercase hex digits, or "0" for the genesis ids, which are written as 32 zero bytes. That is
+    everything this chain produces, and it's what makes a decoded block compare equal, String for String, to the one
+    that was encoded.
+
+    Decoding never trusts a count or length it reads: one that the bytes left in the buffer couldn't hold is rejected
+    before anything is allocated for it, so a few bytes of bad data can't ask for gigabytes of heap.
+
+    Everything is read from and written to ByteBuffers at their current position, nothing is built up as Strings in
+    between. A codec keeps a reusable output buffer and a key factory, so use one codec per thread.
+*/
+public class BlockCodec {
+
+    public static final byte VERSION = 2; // 1 had float amounts
+
+    // The curve Wallet generates its keys on, keys on it are stored as compressed points.
+    static final String CURVE = "prime192v1";
+
+    private static final int BLOCK_HASH_NULL = 1;
+    private static final int MERKLE_ROOT_NULL = 2;
+    private static final int MERKLE_ROOT_EMPTY = 4;
+
+    private static final int ID_NULL = 1;
+    private static final int HAS_SIGNATURE = 2;
+    private static final int HAS_INPUTS = 4;
+
+    private static final int PARENT_IS_TRANSACTION = 1;
+
+    private static final int KEY_COMPRESSED = 1; // compressed point on CURVE
+    private static final int KEY_X509 = 2; // any other key, as its X.509 encoding
+
+    // The fewest bytes each of these can be encoded in, to check counts against what's left to decode.
+    private static final int MIN_KEY_SIZE = 2; // format, empty length
+    private static final int MIN_TRANSACTION_SIZE = 5; // flags, sender, reciepient, value, no outputs
+    private static final int MIN_INPUT_SIZE = 33; // id, no spent output
+    private static final int MIN_OUTPUT_SIZE = 35; // flags, id, reciepient, value
+
+    private static final ECNamedCurveParameterSpec CURVE_SPEC = ECNamedCurveTable.getParameterSpec(CURVE);
+
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private KeyFactory keyFactory;
+
+    // Encodes 'block' into the codec's own buffer and returns it ready to read. The buffer is reused by the next call.
+    public ByteBuffer encode(@NotNull Block block) {
+        while(true) {
+            buffer.clear();
+            try {
+                encode(block, buffer);
+                return buffer.flip();
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    // Encodes 'block' at the position of 'out'. Throws BufferOverflowException if it doesn't fit.
+    public void encode(@NotNull Block block, @NotNull ByteBuffer out) {
+        Map<Address, Integer> keys = keyTable(block.transactions);
+
+        int flags = 0;
+        if(block.hash == null) flags |= BLOCK_HASH_NULL;
+        if(block.merkleRoot == null) flags |= MERKLE_ROOT_NULL;
+        else if(block.merkleRoot.isEmpty()) flags |= MERKLE_ROOT_EMPTY;
+
+        out.put(VERSION);
+        out.put((byte) flags);
+        if(block.hash != null) putHash(out, block.hash);
+        putHash(out, block.previousHash);
+        if((flags & (MERKLE_ROOT_NULL | MERKLE_ROOT_EMPTY)) == 0) putHash(out, block.merkleRoot);
+        out.putLong(block.timeStamp);
+        out.putInt(block.nonce);
+
+        putKeys(out, keys);
+
+        putVarint(out, block.transactions.size());
+        for(Transaction transaction : block.transactions) {
+            putTransaction(out, transaction, keys);
+        }
+    }
+
+    // Decodes a block from the position of 'in'. Throws IllegalArgumentException if it isn't a valid encoding.
+    public Block decode(@NotNull ByteBuffer in) {
+        try {
+            checkVersion(in.get());
+            int flags = in.get();
+
+            Block block = new Block();
+            if((flags & BLOCK_HASH_NULL) == 0) block.hash = getHash(in);
+            block.previousHash = getHash(in);
+            if((flags & MERKLE_ROOT_NULL) != 0) block.merkleRoot = null;
+            else if((flags & MERKLE_ROOT_EMPTY) != 0) block.merkleRoot = "";
+            else block.merkleRoot = getHash(in);
+            block.timeStamp = in.getLong();
+            block.nonce = in.getInt();
+
+            Address[] keys = getKeys(in);
+
+            int transactions = getCount(in, MIN_TRANSACTION_SIZE);
+            block.transactions.ensureCapacity(transactions);
+            for(int t = 0; t < transactions; t++) {
+                block.transactions.add(getTransaction(in, keys));
+            }
+
+            return block;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or malformed block encoding", e);
+        }
+    }
+
+    // A single transaction with its own key table, for sending transactions that aren't in a block yet.
+    public void encode(@NotNull Transaction transaction, @NotNull ByteBuffer out) {
+        ArrayList<Transaction> single = new ArrayList<>(1);
+        single.add(transaction);
+        Map<Address, Integer> keys = keyTable(single);
+
+        out.put(VERSION);
+        putKeys(out, keys);
+        putTransaction(out, transaction, keys);
+    }
+
+    public Transaction decodeTransaction(@NotNull ByteBuffer in) {
+        try {
+            checkVersion(in.get());
+            return getTransaction(in, getKeys(in));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or malformed transaction encoding", e);
+        }
+    }
+
+    // A set of unspent outputs with their own key table. Throws BufferOverflowException if it doesn't fit.
+    public void encode(@NotNull List<TransactionOutput> outputs, @NotNull ByteBuffer out) {
+        HashMap<Address, Integer> keys = new HashMap<>();
+        for(TransactionOutput output : outputs) {
+            keys.putIfAbsent(output.reciepient, keys.size());
+        }
+
+        out.put(VERSION);
+        putKeys(out, keys);
+
+        putVarint(out, outputs.size());
+        for(TransactionOutput output : outputs) {
+            putOutput(out, output, null, keys);
+        }
+    }
+
+    // Decodes a set of outputs written by encode(List, ByteBuffer), handing them to 'action' one at a time.
+    public void decodeOutputs(@NotNull ByteBuffer in, @NotNull Consumer<TransactionOutput> action) {
+        try {
+            checkVersion(in.get());
+            Address[] keys = getKeys(in);
+
+            int outputs = getCount(in, MIN_OUTPUT_SIZE);
+            for(int o = 0; o < outputs; o++) {
+                action.accept(getOutput(in, null, keys));
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or malformed output set encoding", e);
+        }
+    }
+
+    private static void checkVersion(byte version) {
+        if(version != VERSION) throw new IllegalArgumentException("Unsupported encoding version " + version);
+    }
+
+    // Every distinct address in the transactions, numbered in order of first use.
+    private static Map<Address, Integer> keyTable(ArrayList<Transaction> transactions) {
+        HashMap<Address, Integer> keys = new HashMap<>();
+
+        for(Transaction transaction : transactions) {
+            keys.putIfAbsent(transaction.sender, keys.size());
+            keys.putIfAbsent(transaction.reciepient, keys.size());
+            if(transaction.inputs != null) {
+                for(TransactionInput input : transaction.inputs) {
+                    if(input.UTXO != null) keys.putIfAbsent(input.UTXO.reciepient, keys.size());
+                }
+            }
+            for(TransactionOutput output : transaction.outputs) {
+                keys.putIfAbsent(output.reciepient, keys.size());
+            }
+        }
+
+        return keys;
+    }
+
+    private static void putKeys(ByteBuffer out, Map<Address, Integer> keys) {
+        Address[] ordered = new Address[keys.size()];
+        for(Map.Entry<Address, Integer> key : keys.entrySet()) {
+            ordered[key.getValue()] = key.getKey();
+        }
+
+        putVarint(out, ordered.length);
+        for(Address address : ordered) {
+            PublicKey key = address.getPublicKey();
+            if(isOnCurve(key)) {
+                out.put((byte) KEY_COMPRESSED);
+                putBytes(out, ((org.bouncycastle.jce.interfaces.ECPublicKey) key).getQ().getEncoded(true));
+            } else {
+                out.put((byte) KEY_X509);
+                putBytes(out, address.encoded());
+            }
+        }
+    }
+
+    private Address[] getKeys(ByteBuffer in) {
+        Address[] keys = new Address[getCount(in, MIN_KEY_SIZE)];
+
+        // Keys that appear more than once in the table would be the same key, so each one is only decoded once.
+        HashMap<ByteBuffer, Address> decoded = new HashMap<>();
+        try {
+            for(int i = 0; i < keys.length; i++) {
+                int format = in.get();
+                ByteBuffer encoded = ByteBuffer.wrap(getBytes(in));
+
+                Address address = decoded.get(encoded);
+                if(address == null) {
+                    PublicKey key;
+                    if(format == KEY_COMPRESSED) {
+                        key = keyFactory().generatePublic(new ECPublicKeySpec(CURVE_SPEC.getCurve().decodePoint(encoded.array()), CURVE_SPEC));
+                    } else if(format == KEY_X509) {
+                        key = keyFactory().generatePublic(new X509EncodedKeySpec(encoded.array()));
+                    } else {
+                        throw new IllegalArgumentException("Unknown key format " + format);
+                    }
+                    address = Address.of(key);
+                    decoded.put(encoded, address);
+                }
+                keys[i] = address;
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Undecodable public key", e);
+        }
+
+        return keys;
+    }
+
+    private static boolean isOnCurve(PublicKey key) {
+        if(!(key instanceof org.bouncycastle.jce.interfaces.ECPublicKey)) return false;
+
+        org.bouncycastle.jce.spec.ECParameterSpec parameters = ((org.bouncycastle.jce.interfaces.ECPublicKey) key).getParameters();
+        return parameters != null && parameters.getCurve().equals(CURVE_SPEC.getCurve()) && parameters.getG().equals(CURVE_SPEC.getG());
+    }
+
+    private KeyFactory keyFactory() throws GeneralSecurityException {
+        if(keyFactory == null) keyFactory = KeyFactory.getInstance("ECDSA", "BC");
+        return keyFactory;
+    }
+
+    private static void putTransaction(ByteBuffer out, Transaction transaction, Map<Address, Integer> keys) {
+        int flags = 0;
+        if(transaction.transactionId == null) flags |= ID_NULL;
+        if(transaction.signature != null) flags |= HAS_SIGNATURE;
+        if(transaction.inputs != null) flags |= HAS_INPUTS;
+
+        out.put((byte) flags);
+        if(transaction.transactionId != null) putHash(out, transaction.transactionId);
+        putVarint(out, keys.get(transaction.sender));
+        putVarint(out, keys.get(transaction.reciepient));
+        putVarlong(out, transaction.value);
+        if(transaction.signature != null) putBytes(out, transaction.signature);
+
+        if(transaction.inputs != null) {
+            putVarint(out, transaction.inputs.size());
+            for(TransactionInput input : transaction.inputs) {
+                putHash(out, input.transactionOutputId);
+                out.put((byte) (input.UTXO != null ? 1 : 0));
+                if(input.UTXO != null) putOutput(out, input.UTXO, null, keys);
+            }
+        }
+
+        putVarint(out, transaction.outputs.size());
+        for(TransactionOutput output : transaction.outputs) {
+            putOutput(out, output, transaction.transactionId, keys);
+        }
+    }
+
+    private static Transaction getTransaction(ByteBuffer in, Address[] keys) {
+        int flags = in.get();
+
+        String transactionId = (flags & ID_NULL) == 0 ? getHash(in) : null;
+        Address sender = keys[getVarint(in)];
+        Address reciepient = keys[getVarint(in)];
+        long value = getVarlong(in);
+        byte[] signature = (flags & HAS_SIGNATURE) != 0 ? getBytes(in) : null;
+
+        ArrayList<TransactionInput> inputs = null;
+        if((flags & HAS_INPUTS) != 0) {
+            int count = getCount(in, MIN_INPUT_SIZE);
+            inputs = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                TransactionInput input = new TransactionInput(getHash(in));
+                if(in.get() != 0) input.UTXO = getOutput(in, null, keys);
+                inputs.add(input);
+            }
+        }
+
+        Transaction transaction = new Transaction(sender, reciepient, value, inputs);
+        transaction.transactionId = transactionId;
+        transaction.signature = signature;
+
+        int outputs = getCount(in, MIN_OUTPUT_SIZE);
+        transaction.outputs.ensureCapacity(outputs);
+        for(int o = 0; o < outputs; o++) {
+            transaction.outputs.add(getOutput(in, transactionId, keys));
+        }
+
+        return transaction;
+    }
+
+    private static void putOutput(ByteBuffer out, TransactionOutput output, String transactionId, Map<Address, Integer> keys) {
+        boolean parentIsTransaction = transactionId != null && transactionId.equals(output.parentTransactionId);
+
+        out.put((byte) (parentIsTransaction ? PARENT_IS_TRANSACTION : 0));
+        putHash(out, output.id);
+        putVarint(out, keys.get(output.reciepient));
+        putVarlong(out, output.value);
+        if(!parentIsTransaction) putHash(out, output.parentTransactionId);
+    }
+
+    private static TransactionOutput getOutput(ByteBuffer in, String transactionId, Address[] keys) {
+        int flags = in.get();
+
+        String id = getHash(in);
+        Address reciepient = keys[getVarint(in)];
+        long value = getVarlong(in);
+        String parentTransactionId = (flags & PARENT_IS_TRANSACTION) != 0 ? transactionId : getHash(in);
+
+        return new TransactionOutput(id, reciepient, value, parentTransactionId);
+    }
+
+    private static void putHash(ByteBuffer out, String hash) {
+        if(hash == null || !(hash.equals("0") || (hash.length() == 64 && hash.equals(hash.toLowerCase())))) {
+            throw new IllegalArgumentException("Can't encode " + hash + " as a hash");
+        }
+        out.put(StringUtil.getHashBytes(hash));
+    }
+
+    private static String getHash(ByteBuffer in) {
+        long[] words = {in.getLong(), in.getLong(), in.getLong(), in.getLong()};
+        return StringUtil.getHashString(words, 0);
+    }
+
+    private static void putBytes(ByteBuffer out, byte[] bytes) {
+        putVarint(out, bytes.length);
+        out.put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer in) {
+        byte[] bytes = new byte[getCount(in, 1)];
+        in.get(bytes);
+        return bytes;
+    }
+
+    // A count of items of at least 'itemSize' bytes each, rejected if 'in' hasn't got that many bytes left.
+    private static int getCount(ByteBuffer in, int itemSize) {
+        int count = getVarint(in);
+        if(count > in.remaining() / itemSize) {
+            throw new IllegalArgumentException("Count " + count + " doesn't fit in the " + in.remaining() + " bytes left");
+        }
+        return count;
+    }
+
+    // Unsigned LEB128: 7 bits per byte, low bits first, the top bit set on every byte but the last.
+    static void putVarint(ByteBuffer out, int value) {
+        while((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+
+        for(int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            // The fifth byte holds bits 28 to 30, anything above them is out of range for a non-negative int.
+            if(shift == 28 && (b & 0xf8) != 0) throw new IllegalArgumentException("Varint out of range");
+            value |= (b & 0x7f) << shift;
+            if(b >= 0) return value;
+        }
+
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    // The same for longs, up to 10 bytes. Amounts are small next to their range, a few coins take 4 or 5 bytes.
+    static void putVarlong(ByteBuffer out, long value) {
+        while((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long getVarlong(ByteBuffer in) {
+        long value = 0;
+
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            // The tenth byte holds only bit 63.
+            if(shift == 63 && (b & 0xfe) != 0) throw new IllegalArgumentException("Varlong out of range");
+            value |= (long) (b & 0x7f) << shift;
+            if(b >= 0) return value;
+        }
+
+        throw new IllegalArgumentException("Varlong too long");
+    }
+}
@@ -0,0 +1,31 @@
+import org.jetbrains.annotations.NotNull;
+
+/* BLOCK HEADER:
+    The part of a block that its hash covers, without the transactions. It's all a light client needs to follow the
+    chain: the header links to its predecessor through previousHash, proves its work through hash and nonce, and
+    commits to its transactions through merkleRoot, which MerkleProofs are checked against.
+*/
+public class BlockHeader {
+
+    public final String hash;
+    public final String previousHash;
+    public final String merkleRoot;
+    public final long timeStamp;
+    public final int nonce;
+
+    public BlockHeader(String hash, String previousHash, String merkleRoot, long timeStamp, int nonce) {
+        this.hash = hash;
+        this.previousHash = previousHash;
+        this.merkleRoot = merkleRoot;
+        this.timeStamp = timeStamp;
+        this.nonce = nonce;
+    }
+
+    public BlockHeader(@NotNull Block block) {
+        this(block.hash, block.previousHash, block.merkleRoot, block.timeStamp, block.nonce);
+    }
+
+    public String calculateHash() {
+        return Block.calculateHash(previousHash, timeStamp, nonce, merkleRoot);
+    }
+}
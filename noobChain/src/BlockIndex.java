@@ -0,0 +1,339 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/* BLOCK INDEX:
+    Every block the node knows about, by hash, and the main chain by height, both looked up in O(1). NoobChain.blockchain
+    is a plain list: finding a block by hash meant walking it, and a second block at the same height had nowhere to go.
+
+    The index is a tree. Every block points to its parent, and a block whose parent isn't the tip starts or extends a
+    side branch. Each block carries the total work of the chain ending in it, the sum over the blocks of 2^targetBits,
+    the number of hashes a block at that difficulty takes on average. The main chain is the one with the most work;
+    a branch that gets only as much work as the main chain stays a side branch, the first chain seen wins the tie.
+
+    REORGANIZATION:
+    When a side branch gets more work than the main chain, the index switches to it without rebuilding the UTXO set:
+
+        1. Disconnect the main chain's blocks from the tip back to the fork point, newest first. Every transaction's
+           outputs are taken out of the set and the outputs it spent are put back. Those come from the inputs: once a
+           block is connected, each input's UTXO is the exact output it spent, which makes it the block's undo data.
+        2. Connect the branch's blocks from the fork point up, oldest first: every input must be unspent, belong to the
+           sender and carry the value it claims, and no output may already be in the set. Then the transaction's
+           inputs are spent and its outputs added in one UTXOSet.spend().
+
+    If a branch block fails to connect, the branch blocks connected so far are disconnected again, the old main chain
+    is connected back, and the failing block and everything built on it are dropped from the index.
+
+    The main chain list given to the index (NoobChain.blockchain) follows it: it's cut back to the fork point and the
+    branch appended. Blocks appended to the list by other code, like NoobChain.addBlock() does for blocks mined here,
+    are taken into the index on the next call; their transactions are already in the UTXO set. If the list was changed
+    in any other way (cleared and rebuilt, say) the index starts over from it and forgets its side branches.
+
+    Transactions of disconnected blocks aren't put back in any mempool, they have to be submitted again.
+*/
+public class BlockIndex {
+
+    public enum Status {
+        CONNECTED, // extends the main chain
+        SIDE_BRANCH, // stored, but the main chain has at least as much work
+        REORGANIZED, // its branch has more work and is now the main chain
+        DUPLICATE, // already in the index
+        ORPHAN, // its parent isn't in the index, not stored
+        INVALID // fails a check or doesn't connect, not stored
+    }
+
+    private final List<Block> blockchain;
+    private final UTXOSet utxos;
+    private final HashMap<String, Entry> entries = new HashMap<>(); // every known block, by hash
+    private final ArrayList<Entry> mainChain = new ArrayList<>(); // by height
+
+    private static final Metrics.Counter reorganizations = NoobChain.metrics.counter("chain.reorganizations");
+
+    public BlockIndex(@NotNull List<Block> blockchain, @NotNull UTXOSet utxos) {
+        this.blockchain = blockchain;
+        this.utxos = utxos;
+    }
+
+    // The block with this hash, on any branch, or null.
+    public synchronized Entry get(String hash) {
+        sync();
+        return entries.get(hash);
+    }
+
+    // The main chain's block at 'height', or null.
+    public synchronized Block getBlock(int height) {
+        sync();
+        return height < 0 || height >= mainChain.size() ? null : mainChain.get(height).block;
+    }
+
+    public synchronized Entry getTip() {
+        sync();
+        return mainChain.isEmpty() ? null : mainChain.get(mainChain.size() - 1);
+    }
+
+    public synchronized boolean isOnMainChain(String hash) {
+        sync();
+        Entry entry = entries.get(hash);
+        return entry != null && entry.height < mainChain.size() && mainChain.get(entry.height) == entry;
+    }
+
+    // Number of blocks in the index, side branches included.
+    public synchronized int size() {
+        sync();
+        return entries.size();
+    }
+
+    public synchronized Status submit(@NotNull Block block, int difficulty) {
+        /* FUNCTION BREAKDOWN:
+            Adds a mined block from somewhere else, one whose transactions haven't been applied to the UTXO set.
+
+            The block is checked the way ChainValidator checks a block: hash, link to its parent and proof of work,
+            plus its Merkle root, then every transaction's signature, amounts and outputs. Only then is it indexed,
+            with its parent's total work plus its own.
+
+            A block on the tip is connected right away. A block on a side branch is only stored, unless its branch
+            now has more work than the main chain, in which case the index reorganizes onto it. Either way a block
+            that doesn't connect is dropped and INVALID is returned.
+         */
+        sync();
+
+        if(block.hash == null || entries.containsKey(block.hash)) return block.hash == null ? Status.INVALID : Status.DUPLICATE;
+
+        Entry parent = entries.get(block.previousHash);
+        if(parent == null) return Status.ORPHAN;
+
+        String error = check(block, parent.block, difficulty);
+        if(error != null) {
+            NoobChain.log.warn("#Block " + block.hash + " rejected: " + error);
+            return Status.INVALID;
+        }
+
+        Entry entry = new Entry(block, parent, difficulty);
+        Entry tip = mainChain.get(mainChain.size() - 1);
+
+        if(parent == tip) {
+            if(!connect(entry)) return Status.INVALID;
+
+            entries.put(entry.hash, entry);
+            mainChain.add(entry);
+            blockchain.add(block);
+            return Status.CONNECTED;
+        }
+
+        entries.put(entry.hash, entry);
+        if(entry.chainWork.compareTo(tip.chainWork) <= 0) return Status.SIDE_BRANCH;
+
+        return reorganize(entry) ? Status.REORGANIZED : Status.INVALID;
+    }
+
+    private boolean reorganize(Entry newTip) {
+        // The branch from the fork point up to the new tip, oldest first.
+        ArrayList<Entry> branch = new ArrayList<>();
+        Entry fork = newTip;
+        while(fork.height >= mainChain.size() || mainChain.get(fork.height) != fork) {
+            branch.add(fork);
+            fork = fork.parent;
+        }
+        Collections.reverse(branch);
+
+        List<Entry> disconnected = new ArrayList<>(mainChain.subList(fork.height + 1, mainChain.size()));
+        for(int i = disconnected.size() - 1; i >= 0; i--) {
+            disconnect(disconnected.get(i));
+        }
+
+        for(int i = 0; i < branch.size(); i++) {
+            if(connect(branch.get(i))) continue;
+
+            // Back to the old main chain, without the bad block and whatever was built on it.
+            for(int j = i - 1; j >= 0; j--) {
+                disconnect(branch.get(j));
+            }
+            for(Entry entry : disconnected) {
+                if(!connect(entry)) throw new IllegalStateException("Could not reconnect block " + entry.hash);
+            }
+            forget(branch.get(i));
+            return false;
+        }
+
+        mainChain.subList(fork.height + 1, mainChain.size()).clear();
+        mainChain.addAll(branch);
+        blockchain.subList(fork.height + 1, blockchain.size()).clear();
+        for(Entry entry : branch) {
+            blockchain.add(entry.block);
+        }
+
+        reorganizations.increment();
+        NoobChain.log.info("Reorganized onto " + newTip.hash + ": " + disconnected.size() + " blocks disconnected, "
+                + branch.size() + " connected at height " + (fork.height + 1));
+        return true;
+    }
+
+    // Applies a block's transactions to the UTXO set, in order. If one doesn't apply, the ones before it are undone.
+    private boolean connect(Entry entry) {
+        List<Transaction> transactions = entry.block.transactions;
+
+        for(int t = 0; t < transactions.size(); t++) {
+            Transaction transaction = transactions.get(t);
+
+            ArrayList<String> spent = new ArrayList<>();
+            boolean unspent = transaction.inputs != null && !transaction.inputs.isEmpty();
+            if(unspent) {
+                for(TransactionInput input : transaction.inputs) {
+                    TransactionOutput output = utxos.get(input.transactionOutputId);
+                    if(output == null || input.UTXO == null || output.value != input.UTXO.value || !output.reciepient.equals(transaction.sender)) {
+                        unspent = false;
+                        break;
+                    }
+                    input.UTXO = output; // the exact output spent, to put back if the block is disconnected
+                    spent.add(output.id);
+                }
+            }
+
+            // spend() would replace an output already in the set under the same id.
+            for(int o = 0; unspent && o < transaction.outputs.size(); o++) {
+                if(utxos.containsKey(transaction.outputs.get(o).id)) unspent = false;
+            }
+
+            if(!unspent || !utxos.spend(spent, transaction.outputs)) {
+                NoobChain.log.warn("#Block " + entry.hash + " doesn't connect: Transaction(" + t + ") spends an output that isn't unspent"
+                        + " or isn't the sender's, or creates one that already exists");
+                for(int u = t - 1; u >= 0; u--) {
+                    undo(transactions.get(u));
+                }
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Takes a connected block's transactions back out of the UTXO set, newest first.
+    private void disconnect(Entry entry) {
+        List<Transaction> transactions = entry.block.transactions;
+
+        for(int t = transactions.size() - 1; t >= 0; t--) {
+            undo(transactions.get(t));
+        }
+    }
+
+    private void undo(Transaction transaction) {
+        ArrayList<String> created = new ArrayList<>(transaction.outputs.size());
+        for(TransactionOutput output : transaction.outputs) {
+            created.add(output.id);
+        }
+
+        ArrayList<TransactionOutput> restored = new ArrayList<>();
+        if(transaction.inputs != null) {
+            for(TransactionInput input : transaction.inputs) {
+                restored.add(input.UTXO);
+            }
+        }
+
+        // The outputs can only be missing if a later transaction still spends them, which undoing in order rules out.
+        if(!utxos.spend(created, restored)) throw new IllegalStateException("Outputs of " + transaction.transactionId + " are spent");
+    }
+
+    // Drops a block and every block built on it.
+    private void forget(Entry root) {
+        entries.values().removeIf(entry -> {
+            for(Entry e = entry; e != null; e = e.parent) {
+                if(e == root) return true;
+            }
+            return false;
+        });
+    }
+
+    private static String check(Block block, Block parent, int difficulty) {
+        String error = ChainValidator.checkHeader(block, parent, StringUtil.getDificultyString(difficulty));
+        if(error != null) return error;
+
+        if(block.merkleRoot == null || !block.merkleRoot.equals(block.getMerkleRoot())) return "#Merkle root doesn't match the transactions";
+
+        for(int t = 0; t < block.transactions.size(); t++) {
+            Transaction transaction = block.transactions.get(t);
+            if(transaction == null || transaction.inputs == null || transaction.inputs.isEmpty()) {
+                return "#Transaction(" + t + ") spends nothing";
+            }
+            if(transaction.outputs == null || transaction.outputs.isEmpty() || transaction.outputs.size() > 2) {
+                return "#Transaction(" + t + ") must have one output, or two with the change";
+            }
+            if(transaction.transactionId == null) return "#Transaction(" + t + ") has no id";
+            // checkTransaction() adds up the inputs' UTXOs and reads the outputs, none of them may be missing.
+            for(TransactionInput input : transaction.inputs) {
+                if(input == null || input.UTXO == null) return "#Transaction(" + t + ") has an input without the output it spends";
+            }
+            // Nothing here was made by this node: every output must be positive and carry the id its contents hash to,
+            // or a relabelled output could take the place of one already in the UTXO set.
+            for(TransactionOutput output : transaction.outputs) {
+                if(output == null || output.reciepient == null) return "#Transaction(" + t + ") has an output without a reciepient";
+                if(output.value <= 0) return "#Transaction(" + t + ") has an output that isn't positive";
+                if(!transaction.transactionId.equals(output.parentTransactionId)
+                        || !TransactionOutput.calculateId(output.reciepient, output.value, transaction.transactionId).equals(output.id)) {
+                    return "#Transaction(" + t + ") has an output whose id doesn't match it";
+                }
+            }
+            if(transaction.outputs.size() == 2 && transaction.outputs.get(0).id.equals(transaction.outputs.get(1).id)) {
+                return "#Transaction(" + t + ") has two outputs with the same id";
+            }
+            // The signature covers the value sent, not the outputs: the reciepient must get exactly that.
+            if(transaction.outputs.get(0).value != transaction.value) {
+                return "#Transaction(" + t + ") doesn't send its value to the reciepient";
+            }
+
+            try {
+                error = ChainValidator.checkTransaction(transaction, t);
+            } catch (ArithmeticException e) {
+                return "#Transaction(" + t + ") amounts overflow";
+            }
+            if(error != null) return error;
+        }
+
+        return null;
+    }
+
+    // Brings the index in line with the main chain list, see the class comment.
+    private void sync() {
+        int indexed = mainChain.size();
+
+        // Only the last indexed block is compared: a list that was cleared, cut back or re-mined doesn't have it there.
+        if(indexed > 0) {
+            Entry last = mainChain.get(indexed - 1);
+            if(indexed > blockchain.size() || blockchain.get(indexed - 1) != last.block || last.block.hash != last.hash) {
+                entries.clear();
+                mainChain.clear();
+                indexed = 0;
+            }
+        }
+
+        for(int height = indexed; height < blockchain.size(); height++) {
+            Block block = blockchain.get(height);
+            Entry entry = new Entry(block, height == 0 ? null : mainChain.get(height - 1), NoobChain.difficulty);
+
+            entries.put(entry.hash, entry);
+            mainChain.add(entry);
+        }
+    }
+
+    public static final class Entry {
+
+        public final Block block;
+        public final String hash; // as it was when the block was indexed
+        public final Entry parent; // null for genesis
+        public final int height;
+        public final BigInteger chainWork; // expected hashes to mine every block from genesis up to this one
+
+        Entry(Block block, Entry parent, int difficulty) {
+            this.block = block;
+            this.hash = block.hash;
+            this.parent = parent;
+            this.height = parent == null ? 0 : parent.height + 1;
+
+            BigInteger work = BigInteger.ONE.shiftLeft(HeaderHasher.getTargetBits(difficulty));
+            this.chainWork = parent == null ? work : parent.chainWork.add(work);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/* BLOCK STORE:
+    An append-only file store for the chain, so a node keeps its blocks across restarts and doesn't need to hold them
+    all on the heap. Blocks are appended to segment files (blocks-00000.dat, blocks-00001.dat, ...) of at most
+    'segmentSize' bytes each. Every block is one record:
+
+        int       magic        RECORD_MAGIC, marks the start of a record
+        int       length       payload length in bytes
+        int       crc          CRC32 of the payload
+        byte[32]  hash         the block hash as raw bytes
+        byte[]    payload      the block, encoded by BlockCodec
+
+    Two indexes are kept in memory: block hash -> location and height -> location, where a location packs the segment
+    number and the offset inside it into one long. They are rebuilt on open by walking the record headers only, so
+    reopening a large chain reads 44 bytes per block and decodes nothing. A block is only decoded when it's asked for.
+
+    Full segments are read through read-only MappedByteBuffers; the segment being appended to is read with positional
+    reads, since it keeps growing.
+
+    CRASH RECOVERY:
+    A crash can leave a half written record at the end of the last segment. On open the records of the last segment
+    are checked in full (header, length and CRC), and the segment is truncated right before the first record that
+    doesn't check out. Earlier segments were complete when the next one was started, so a bad record there means the
+    file is corrupt and opening fails.
+
+    The store only appends, except for truncate(), which cuts the chain back to a height so a node that switched to
+    another branch can write that branch in place of the blocks it replaced.
+*/
+public class BlockStore implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final int RECORD_MAGIC = 0x4E4F4F42; // "NOOB"
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 32;
+    private static final int SEGMENT_BITS = 40; // offsets within a segment use the low 40 bits of a location
+
+    private final Path directory;
+    private final long segmentSize;
+
+    private final ArrayList<FileChannel> segments = new ArrayList<>();
+    private final ArrayList<MappedByteBuffer> mapped = new ArrayList<>(); // null for the segment being appended to
+    private final BlockCodec codec = new BlockCodec();
+    private final HashMap<String, Integer> heightsByHash = new HashMap<>();
+    private long[] locations = new long[1024]; // by height
+    private int size;
+    private long tail; // end of the last record in the last segment
+
+    private BlockStore(Path directory, long segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    // Opens (or creates) the store in 'directory', recovering from an interrupted append if there was one.
+    public static BlockStore open(@NotNull Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static BlockStore open(@NotNull Path directory, long segmentSize) throws IOException {
+        Files.createDirectories(directory);
+
+        BlockStore store = new BlockStore(directory, segmentSize);
+        store.load();
+
+        return store;
+    }
+
+    private void load() throws IOException {
+        List<Path> files;
+        try(Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().matches("blocks-\\d{5}\\.dat"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        for(int i = 0; i < files.size(); i++) {
+            if(!files.get(i).equals(segmentPath(i))) throw new IOException("Missing block segment " + segmentPath(i));
+
+            segments.add(FileChannel.open(files.get(i), StandardOpenOption.READ, StandardOpenOption.WRITE));
+            mapped.add(null);
+        }
+
+        if(segments.isEmpty()) {
+            startSegment();
+            return;
+        }
+
+        for(int i = 0; i < segments.size(); i++) {
+            boolean last = i == segments.size() - 1;
+            long end = scan(i, last);
+
+            if(last) {
+                if(end < segments.get(i).size()) segments.get(i).truncate(end); // drop the torn tail
+                tail = end;
+            } else {
+                mapped.set(i, segments.get(i).map(FileChannel.MapMode.READ_ONLY, 0, end));
+            }
+        }
+    }
+
+    // Walks the records of one segment and indexes them, returns where the last good record ends.
+    private long scan(int segment, boolean last) throws IOException {
+        FileChannel channel = segments.get(segment);
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        byte[] hash = new byte[32];
+        CRC32 crc = new CRC32();
+
+        long position = 0;
+        while(position + HEADER_SIZE <= fileSize) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+
+            int magic = header.getInt();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            header.get(hash);
+
+            boolean complete = magic == RECORD_MAGIC && length >= 0 && position + HEADER_SIZE + length <= fileSize;
+
+            // Only the segment that was being written can have a torn record, so only its payloads are checked.
+            if(complete && last) {
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                channel.read(payload, position + HEADER_SIZE);
+                crc.reset();
+                crc.update(payload.array());
+                complete = (int) crc.getValue() == checksum;
+            }
+
+            if(!complete) {
+                if(last) break;
+                throw new IOException("Corrupt record at offset " + position + " of " + segmentPath(segment));
+            }
+
+            index(toHashString(hash), location(segment, position));
+            position += HEADER_SIZE + length;
+        }
+
+        if(!last && position != fileSize) throw new IOException("Trailing bytes in " + segmentPath(segment));
+
+        return position;
+    }
+
+    // Appends a block and returns its height in the store.
+    public synchronized int append(@NotNull Block block) throws IOException {
+        ByteBuffer payload = codec.encode(block);
+        int length = payload.remaining();
+
+        if(tail > 0 && tail + HEADER_SIZE + length > segmentSize) {
+            sealSegment();
+            startSegment();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(RECORD_MAGIC);
+        header.putInt(length);
+        header.putInt((int) crc.getValue());
+        header.put(StringUtil.getHashBytes(block.hash));
+        header.flip();
+
+        FileChannel channel = segments.get(segments.size() - 1);
+        long position = tail;
+        while(header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+        while(payload.hasRemaining()) {
+            position += channel.write(payload, position);
+        }
+        channel.force(false); // the record is durable before it's indexed
+
+        index(block.hash, location(segments.size() - 1, tail));
+        tail = position;
+
+        return size - 1;
+    }
+
+    // Drops every block above 'height', so the next append() stores a block at height + 1.
+    public synchronized void truncate(int height) throws IOException {
+        if(height < -1) throw new IllegalArgumentException("Height " + height + " is below the empty store");
+        if(height + 1 >= size) return;
+
+        long location = locations[height + 1];
+        int segment = (int) (location >>> SEGMENT_BITS);
+        long offset = location & ((1L << SEGMENT_BITS) - 1);
+
+        // Segments after the one the cut falls in hold only dropped blocks.
+        for(int i = segments.size() - 1; i > segment; i--) {
+            segments.remove(i).close();
+            mapped.remove(i);
+            Files.delete(segmentPath(i));
+        }
+
+        // The segment the cut falls in is appended to again, so it's read with positional reads from now on.
+        FileChannel channel = segments.get(segment);
+        mapped.set(segment, null);
+        channel.truncate(offset);
+        channel.force(true);
+        tail = offset;
+
+        heightsByHash.values().removeIf(stored -> stored > height);
+        size = height + 1;
+    }
+
+    public synchronized Block get(int height) throws IOException {
+        if(height < 0 || height >= size) return null;
+
+        long location = locations[height];
+        int segment = (int) (location >>> SEGMENT_BITS);
+        long offset = location & ((1L << SEGMENT_BITS) - 1);
+
+        try {
+            return codec.decode(read(segment, offset));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Undecodable block at height " + height, e);
+        }
+    }
+
+    public synchronized Block get(String hash) throws IOException {
+        Integer height = heightsByHash.get(hash);
+        return height == null ? null : get(height);
+    }
+
+    // Height of the block with this hash, or -1 if it isn't stored.
+    public synchronized int getHeight(String hash) {
+        return heightsByHash.getOrDefault(hash, -1);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for(FileChannel channel : segments) {
+            channel.close();
+        }
+        segments.clear();
+        mapped.clear();
+    }
+
+    private ByteBuffer read(int segment, long offset) throws IOException {
+        MappedByteBuffer map = mapped.get(segment);
+
+        if(map != null) {
+            int length = map.getInt((int) offset + 4);
+            return map.slice((int) offset + HEADER_SIZE, length);
+        }
+
+        FileChannel channel = segments.get(segment);
+        ByteBuffer length = ByteBuffer.allocate(4);
+        channel.read(length, offset + 4);
+
+        ByteBuffer payload = ByteBuffer.allocate(length.getInt(0));
+        while(payload.hasRemaining()) {
+            if(channel.read(payload, offset + HEADER_SIZE + payload.position()) < 0) throw new IOException("Truncated record");
+        }
+        payload.flip();
+
+        return payload;
+    }
+
+    private void index(String hash, long location) {
+        if(size == locations.length) locations = Arrays.copyOf(locations, size * 2);
+
+        locations[size] = location;
+        heightsByHash.put(hash, size);
+        size++;
+    }
+
+    private void sealSegment() throws IOException {
+        int last = segments.size() - 1;
+        mapped.set(last, segments.get(last).map(FileChannel.MapMode.READ_ONLY, 0, tail));
+    }
+
+    private void startSegment() throws IOException {
+        segments.add(FileChannel.open(segmentPath(segments.size()),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        mapped.add(null);
+        tail = 0;
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("blocks-%05d.dat", segment));
+    }
+
+    private static long location(int segment, long offset) {
+        return ((long) segment << SEGMENT_BITS) | offset;
+    }
+
+    private static String toHashString(byte[] hash) {
+        long[] words = new long[4];
+        for(int i = 0; i < 32; i++) {
+            words[i / 8] = (words[i / 8] << 8) | (hash[i] & 0xff);
+        }
+        return StringUtil.getHashString(words, 0);
+    }
+}
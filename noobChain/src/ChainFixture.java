@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/* CHAIN FIXTURES:
+    Builds reproducible chains and UTXO sets for the benchmarks. Everything is derived from one seed: the wallets are
+    created with Wallet(long seed), payers, payees and amounts come from a seeded Random, and block timestamps are
+    fixed instead of read from the clock. Blocks are mined with the single threaded Block.mineBlock() so the nonces
+    don't depend on which miner thread wins a race.
+
+    A fixture replaces the static state of NoobChain (blockchain, UTXOs, genesisTransaction and difficulty), just like
+    running NoobChain.main() does.
+*/
+public class ChainFixture {
+
+    public static final long GENESIS_TIMESTAMP = 1_600_000_000_000L;
+    public static final long BLOCK_INTERVAL = 600_000L; // ten minutes between fixture blocks
+
+    private static final int WALLET_COUNT = 16; // unless asked for another number
+
+    public final Random random;
+    public final Wallet coinbase;
+    public final Wallet bank; // receives the genesis coins and pays everybody else
+    public final Wallet[] wallets;
+
+    public ChainFixture(long seed) {
+        this(seed, WALLET_COUNT);
+    }
+
+    public ChainFixture(long seed, int walletCount) {
+        random = new Random(seed);
+        coinbase = new Wallet(random.nextLong());
+        bank = new Wallet(random.nextLong());
+
+        wallets = new Wallet[walletCount];
+        for(int i = 0; i < wallets.length; i++) {
+            wallets[i] = new Wallet(random.nextLong());
+        }
+    }
+
+    // Resets NoobChain and mines a genesis block paying 'genesisValue' to the bank.
+    public Block genesis(long genesisValue, int difficulty) {
+        NoobChain.blockchain.clear();
+        NoobChain.UTXOs.clear();
+        NoobChain.difficulty = difficulty;
+
+        Transaction genesisTransaction = new Transaction(coinbase.address, bank.address, genesisValue, null);
+        genesisTransaction.generateSignature(coinbase.privateKey);
+        genesisTransaction.transactionId = "0";
+        genesisTransaction.outputs.add(new TransactionOutput(genesisTransaction.reciepient, genesisTransaction.value, genesisTransaction.transactionId));
+        NoobChain.UTXOs.put(genesisTransaction.outputs.get(0).id, genesisTransaction.outputs.get(0));
+        NoobChain.genesisTransaction = genesisTransaction;
+
+        Block genesis = new Block("0");
+        genesis.timeStamp = GENESIS_TIMESTAMP;
+        genesis.addTransaction(genesisTransaction);
+        append(genesis);
+
+        return genesis;
+    }
+
+    // Builds a chain of 'chainLength' blocks (genesis included), each after genesis holding 'transactionsPerBlock'
+    // payments from the bank to random wallets.
+    public void chain(int chainLength, int transactionsPerBlock, int difficulty) {
+        genesis(Amount.coins(1_000_000), difficulty);
+
+        for(int height = 1; height < chainLength; height++) {
+            Block block = new Block(NoobChain.blockchain.get(height - 1).hash);
+            block.timeStamp = GENESIS_TIMESTAMP + height * BLOCK_INTERVAL;
+
+            for(int t = 0; t < transactionsPerBlock; t++) {
+                block.addTransaction(bank.sendFunds(randomWallet().address, Amount.coins(1 + random.nextInt(10))));
+            }
+
+            append(block);
+        }
+    }
+
+    // Adds 'count' unspent outputs owned by the fixture wallets directly to NoobChain.UTXOs.
+    public void fillUTXOs(int count) {
+        for(int i = 0; i < count; i++) {
+            TransactionOutput output = new TransactionOutput(randomWallet().address, Amount.coins(1 + random.nextInt(100)),
+                    StringUtil.applySha256("fixture" + random.nextLong()));
+            NoobChain.UTXOs.put(output.id, output);
+        }
+    }
+
+    // A signed payment spending a fresh unspent output of 'value' owned by the sender. Not yet processed.
+    public Transaction payment(Wallet sender, Wallet reciepient, long value) {
+        TransactionOutput funding = new TransactionOutput(sender.address, value,
+                StringUtil.applySha256("funding" + random.nextLong()));
+        NoobChain.UTXOs.put(funding.id, funding);
+
+        ArrayList<TransactionInput> inputs = new ArrayList<>();
+        inputs.add(new TransactionInput(funding.id));
+
+        Transaction transaction = new Transaction(sender.address, reciepient.address, value, inputs);
+        transaction.generateSignature(sender.privateKey);
+
+        return transaction;
+    }
+
+    public Wallet randomWallet() {
+        return wallets[random.nextInt(wallets.length)];
+    }
+
+    private void append(Block block) {
+        block.mineBlock(NoobChain.difficulty);
+        NoobChain.blockchain.add(block);
+    }
+}
@@ -0,0 +1,398 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/* STAGED CHAIN VALIDATION:
+    Validating a chain means checking every block's hash, link and proof of work, every transaction's signature, and
+    replaying every transaction against the set of unspent outputs. Only the replay depends on what came before it:
+    a block's header and its signatures can be checked without knowing anything about the other blocks.
+
+    So validation runs as a pipeline of two stages:
+
+        1. Header and transaction checks run in parallel on a fork-join pool, one task for the header of each block
+           and one for each of its transactions. Up to 'window' blocks are in flight ahead of stage 2.
+        2. The UTXO replay walks the blocks strictly in order on the calling thread, waiting for each block's stage 1
+           tasks before it replays that block.
+
+    The first error found by either stage is recorded and stops everything: tasks that haven't started yet skip their
+    work, and the replay stops at its next block.
+
+    After a successful run the validator keeps a checkpoint: how many blocks it validated, a 64-bit fingerprint of
+    each of them, and the UTXOs as of the last one. The next run only checks the blocks appended since. A fingerprint
+    covers everything validation reads from its block: the hash, previous hash, Merkle root, timestamp and nonce, and
+    every transaction's id, sender, recipient, value, signature, inputs and outputs. Before resuming, every
+    checkpointed block's fingerprint is worked out again and compared, so a block that was replaced, re-mined or
+    changed in place anywhere in the prefix drops the checkpoint and the whole chain is validated again. That walk is
+    linear in the chain, but it only reads fields: no hashing, no signature checks and no UTXO replay.
+
+    A node restarted from its BlockStore doesn't have to validate from genesis either: resume() starts the checkpoint
+    at the block a UTXO snapshot was taken after, with the snapshot's outputs. The blocks up to there were validated
+    when they were added and are taken as they're stored; StoredChain.isStored() stands in for their fingerprints,
+    so none of them is read to check the checkpoint.
+*/
+public class ChainValidator {
+
+    private final ForkJoinPool pool;
+    private final int window; // how many blocks stage 1 may run ahead of the UTXO replay
+    private Checkpoint checkpoint; // the validated prefix of the chain, null until a validation succeeds
+
+    public ChainValidator(ForkJoinPool pool) {
+        this(pool, pool.getParallelism() * 4);
+    }
+
+    public ChainValidator(ForkJoinPool pool, int window) {
+        this.pool = pool;
+        this.window = Math.max(1, window);
+    }
+
+    // Forgets the checkpoint, so the next validation checks the whole chain again.
+    public synchronized void invalidate() {
+        checkpoint = null;
+    }
+
+    // Takes the first 'height' blocks of a StoredChain, as they're stored and with 'hash' the last one's hash, to be
+    // valid with 'utxos' as the unspent outputs after them, so the next validation only checks the blocks after them.
+    // For a chain just restored from its store and a snapshot of the UTXOs after that block, see NoobChain.restore().
+    public synchronized void resume(int height, @NotNull String hash, @NotNull UTXOSet utxos, int difficulty, @NotNull Transaction genesisTransaction) {
+        checkpoint = new Checkpoint(difficulty, genesisTransaction, height, hash);
+        utxos.forEach(output -> checkpoint.utxos.put(output.id, output));
+    }
+
+    // Number of blocks, genesis included, known to be valid from the last validation.
+    public synchronized int getValidatedHeight() {
+        return checkpoint == null ? 0 : checkpoint.height;
+    }
+
+    public synchronized boolean validate(@NotNull List<Block> blockchain, int difficulty, @NotNull Transaction genesisTransaction) {
+        /* FUNCTION BREAKDOWN:
+            If the checkpoint still describes the start of this chain, validation resumes after it with the
+            checkpoint's UTXOs. Otherwise the replay starts from a temporary working list of unspent transactions
+            holding only the genesis output, exactly like the blocks were built.
+
+            Stage 1 is started for the first 'window' blocks. Then, for every block in order, the replay waits for
+            that block's stage 1, starts stage 1 for the block 'window' places further on, and replays the block's
+            transactions against the temporary UTXOs.
+
+            Every change the replay makes to the UTXOs is logged. If anything failed, the changes are rolled back so the
+            checkpoint stays as it was, the first error is printed and the chain is invalid. Otherwise the checkpoint
+            is moved to the end of the chain.
+         */
+        if(checkpoint != null && !checkpoint.matches(blockchain, difficulty, genesisTransaction)) {
+            checkpoint = null;
+        }
+        if(checkpoint == null) {
+            checkpoint = new Checkpoint(difficulty, genesisTransaction);
+            if(!blockchain.isEmpty()) checkpoint.add(blockchain.get(0));
+        }
+
+        String hashTarget = StringUtil.getDificultyString(difficulty);
+        HashMap<String,TransactionOutput> tempUTXOs = checkpoint.utxos; // A temporary working list of unspent transactions at a given block state.
+        ArrayList<Change> changes = new ArrayList<>();
+
+        int start = Math.max(1, checkpoint.height); // first block that hasn't been validated yet
+
+        AtomicReference<String> failure = new AtomicReference<>();
+        ArrayDeque<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+
+        int next = start; // next block to hand to stage 1
+        for(; next < blockchain.size() && next - start < window; next++) {
+            inFlight.add(checkBlock(blockchain, next, hashTarget, failure));
+        }
+
+        for(int i = start; i < blockchain.size() && failure.get() == null; i++) {
+            inFlight.poll().join();
+
+            if(next < blockchain.size()) {
+                inFlight.add(checkBlock(blockchain, next++, hashTarget, failure));
+            }
+
+            if(failure.get() != null) break;
+
+            String error = replay(blockchain.get(i), tempUTXOs, changes);
+            if(error != null) failure.compareAndSet(null, error);
+        }
+
+        if(failure.get() != null) {
+            inFlight.forEach(CompletableFuture::join); // let stage 1 finish skipping before the next run
+            rollback(tempUTXOs, changes);
+
+            NoobChain.log.chainChecked(false, failure.get());
+            return false;
+        }
+
+        for(int i = checkpoint.height; i < blockchain.size(); i++) {
+            checkpoint.add(blockchain.get(i));
+        }
+
+        // If all the condition satisfies, then the blockchain is obviously valid
+        NoobChain.log.chainChecked(true, "Blockchain is valid");
+        return true;
+    }
+
+    // Stage 1 for one block: its header check and one check per transaction, all on the pool.
+    private CompletableFuture<Void> checkBlock(List<Block> blockchain, int index, String hashTarget, AtomicReference<String> failure) {
+        Block currentBlock = blockchain.get(index);
+        Block previousBlock = blockchain.get(index - 1);
+
+        List<CompletableFuture<Void>> checks = new ArrayList<>(currentBlock.transactions.size() + 1);
+
+        checks.add(CompletableFuture.runAsync(() -> check(failure, () -> checkHeader(currentBlock, previousBlock, hashTarget)), pool));
+
+        for(int t = 0; t < currentBlock.transactions.size(); t++) {
+            Transaction transaction = currentBlock.transactions.get(t);
+            int transactionIndex = t;
+            checks.add(CompletableFuture.runAsync(() -> check(failure, () -> checkTransaction(transaction, transactionIndex)), pool));
+        }
+
+        return CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[0]));
+    }
+
+    // Runs a check unless something already failed, and records its error if it is the first one.
+    private static void check(AtomicReference<String> failure, Supplier<String> check) {
+        if(failure.get() != null) return;
+
+        String error = check.get();
+        if(error != null) failure.compareAndSet(null, error);
+    }
+
+    static String checkHeader(Block currentBlock, Block previousBlock, String hashTarget) {
+        // Compare registered hash and calculated hash:
+        if(!currentBlock.hash.equals(currentBlock.calculateHash()) ){
+            return "#Current Hashes not equal";
+        }
+        // Compare previous hash and registered previous hash
+        if(!previousBlock.hash.equals(currentBlock.previousHash) ) {
+            return "#Previous Hashes not equal";
+        }
+        // Check if hash is solved
+        if(!currentBlock.hash.substring(0, hashTarget.length()).equals(hashTarget)) {
+            return "#This block hasn't been mined";
+        }
+
+        return null;
+    }
+
+    // Everything about a transaction that doesn't depend on the UTXO set.
+    static String checkTransaction(Transaction currentTransaction, int t) {
+
+        // To check if the digital signature on a transaction is valid or not:
+        if(!currentTransaction.verifySignature()) {
+            return "#Signature on Transaction(" + t + ") is Invalid";
+        }
+
+        if(currentTransaction.getInputsValue() != currentTransaction.getOutputsValue()) {
+             /*
+                In a blockchain system, a transaction involves transferring a certain amount of cryptocurrency
+                from one address to another. Each transaction has one or more inputs, which represent the unspent
+                outputs of previous transactions that are being used as the source of funds for the current
+                transaction, and one or more outputs, which represent the new amounts being transferred to the
+                recipient addresses.
+
+                The code block then checks whether these two values are equal using the != operator. If the values
+                are not equal, it means that the transaction is attempting to spend more cryptocurrency than is
+                available in the input addresses, which is not allowed in a blockchain system.
+             */
+            return "#Inputs are note equal to outputs on Transaction(" + t + ")";
+        }
+
+        /*
+            This code block is also part of the transaction verification process, specifically for verifying
+            that the transaction outputs are being sent to the correct recipients.
+
+            In a blockchain system, a transaction output represents the new amount of cryptocurrency being
+            transferred to the recipient address(es). Each output has a recipient field that contains the
+            public key or address of the recipient to whom the output is being sent.
+
+            The code block verifies that the recipient of the first output transaction in the currentTransaction
+             object matches the intended recipient specified in the currentTransaction.recipient field.
+             If they do not match, it returns an error message.
+
+            It also verifies that the recipient of the second output transaction (which is typically used to
+            send "change" back to the sender) in the currentTransaction object matches the sender's address
+            specified in the currentTransaction.sender field. If they do not match, it returns an error message.
+            A transaction whose inputs add up to exactly the value sent has no change, and no second output.
+
+            These checks ensure that the transaction outputs are being sent to the correct recipients and that
+            any change from the transaction is being returned to the sender's address. If these checks fail,
+            the transaction verification process is halted, and the transaction is considered invalid.
+         */
+        if(!currentTransaction.outputs.get(0).reciepient.equals(currentTransaction.reciepient)) {
+            return "#Transaction(" + t + ") output reciepient is not who it should be";
+        }
+        if(currentTransaction.outputs.size() > 1 && !currentTransaction.outputs.get(1).reciepient.equals(currentTransaction.sender)) {
+            return "#Transaction(" + t + ") output 'change' is not sender.";
+        }
+
+        return null;
+    }
+
+    // Stage 2 for one block: spends its inputs from and adds its outputs to the temporary UTXOs, in order.
+    private static String replay(Block currentBlock, HashMap<String,TransactionOutput> tempUTXOs, ArrayList<Change> changes) {
+        TransactionOutput tempOutput;
+        for(int t=0; t <currentBlock.transactions.size(); t++) {
+            Transaction currentTransaction = currentBlock.transactions.get(t);
+
+            for(TransactionInput input: currentTransaction.inputs) {
+
+                /*
+                    This code block is also part of a transaction verification process and checks whether the input
+                    transactions referenced by the current transaction are valid and exist in the UTXO set
+                    (i.e., the list of unspent transaction outputs).
+
+                    In a blockchain system, a transaction input references a previous transaction output that has
+                    not been spent yet. Each input has a unique transaction ID and output index that points to the
+                    corresponding transaction output in the UTXO set. When a new transaction is created, it must
+                    reference the correct transaction inputs and provide a valid signature to prove ownership of
+                    the input addresses.
+                 */
+                tempOutput = tempUTXOs.get(input.transactionOutputId);
+
+                if(tempOutput == null) {
+                    return "#Referenced input on Transaction(" + t + ") is Missing";
+                }
+
+                if(input.UTXO.value != tempOutput.value) {
+                    return "#Referenced input Transaction(" + t + ") value is Invalid";
+                }
+
+                changes.add(new Change(input.transactionOutputId, tempUTXOs.remove(input.transactionOutputId)));
+            }
+
+            for(TransactionOutput output: currentTransaction.outputs) {
+                /*
+                    In a blockchain system, a transaction output represents the new amount of cryptocurrency being
+                    transferred to the recipient address(es). Each output has a unique ID that is calculated based
+                    on the transaction ID and output index, which helps to identify the output transaction in the
+                    UTXO set.
+
+                    This step ensures that the output transactions of the current transaction are available in the
+                    UTXO set for future transactions to reference as inputs. In other words, it updates the UTXO
+                    set with the new outputs created by the current transaction.
+                 */
+                changes.add(new Change(output.id, tempUTXOs.put(output.id, output)));
+            }
+        }
+
+        return null;
+    }
+
+    // Undoes the logged changes, newest first, so the UTXOs are back where they were before the replay.
+    private static void rollback(HashMap<String,TransactionOutput> tempUTXOs, ArrayList<Change> changes) {
+        for(int i = changes.size() - 1; i >= 0; i--) {
+            Change change = changes.get(i);
+
+            if(change.previous == null) tempUTXOs.remove(change.id);
+            else tempUTXOs.put(change.id, change.previous);
+        }
+    }
+
+    // One change made to the UTXOs by the replay, with what the entry held before it.
+    private static class Change {
+
+        final String id;
+        final TransactionOutput previous; // null if the entry didn't exist
+
+        Change(String id, TransactionOutput previous) {
+            this.id = id;
+            this.previous = previous;
+        }
+    }
+
+    // The validated start of a chain and the UTXOs after its last block.
+    private static class Checkpoint {
+
+        final int difficulty;
+        final Transaction genesisTransaction;
+        final HashMap<String,TransactionOutput> utxos = new HashMap<>();
+        final int stored; // the first blocks, taken as they're stored instead of by fingerprint, see resume()
+        final String storedHash; // hash of the last of them
+        int height; // number of validated blocks, genesis included
+        long[] fingerprints = new long[16]; // fingerprint(block) of each one after 'stored' when it was validated
+
+        Checkpoint(int difficulty, Transaction genesisTransaction) {
+            this(difficulty, genesisTransaction, 0, null);
+
+            utxos.put(genesisTransaction.outputs.get(0).id, genesisTransaction.outputs.get(0));
+        }
+
+        Checkpoint(int difficulty, Transaction genesisTransaction, int stored, String storedHash) {
+            this.difficulty = difficulty;
+            this.genesisTransaction = genesisTransaction;
+            this.stored = stored;
+            this.storedHash = storedHash;
+            height = stored;
+        }
+
+        void add(Block block) {
+            if(height - stored == fingerprints.length) fingerprints = Arrays.copyOf(fingerprints, fingerprints.length * 2);
+            fingerprints[height++ - stored] = fingerprint(block);
+        }
+
+        // True if the chain still starts with the checkpointed blocks, none of them changed. See the class comment.
+        boolean matches(List<Block> blockchain, int difficulty, Transaction genesisTransaction) {
+            if(this.difficulty != difficulty || this.genesisTransaction != genesisTransaction) return false;
+            if(blockchain.size() < height) return false;
+            if(stored > 0 && !(blockchain instanceof StoredChain && ((StoredChain) blockchain).isStored(stored, storedHash))) return false;
+
+            for(int i = stored; i < height; i++) {
+                if(fingerprint(blockchain.get(i)) != fingerprints[i - stored]) return false;
+            }
+
+            return true;
+        }
+    }
+
+    // Mixes every field of 'block' that validation reads into 64 bits. Not a cryptographic hash: it spots blocks that
+    // were changed after they were validated, it doesn't stand up to someone searching for a collision.
+    static long fingerprint(Block block) {
+        long h = mix(mix(mix(0, block.hash), block.previousHash), block.merkleRoot);
+        h = mix(mix(h, block.timeStamp), block.nonce);
+        h = mix(h, block.transactions.size());
+
+        for(Transaction transaction : block.transactions) {
+            h = mix(h, transaction.transactionId);
+            h = mix(mix(h, Objects.hashCode(transaction.sender)), Objects.hashCode(transaction.reciepient));
+            h = mix(mix(h, transaction.value), Arrays.hashCode(transaction.signature));
+
+            h = mix(h, transaction.inputs == null ? -1 : transaction.inputs.size());
+            if(transaction.inputs != null) {
+                for(TransactionInput input : transaction.inputs) {
+                    h = mix(mix(h, input.transactionOutputId), input.UTXO == null ? -1 : input.UTXO.value);
+                }
+            }
+
+            h = mix(h, transaction.outputs.size());
+            for(TransactionOutput output : transaction.outputs) {
+                h = mix(mix(h, output.id), output.parentTransactionId);
+                h = mix(mix(h, Objects.hashCode(output.reciepient)), output.value);
+            }
+        }
+
+        return h;
+    }
+
+    private static long mix(long h, long value) {
+        h = (h ^ value) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    // Every character goes in, not String.hashCode(), which is only 32 bits.
+    private static long mix(long h, String value) {
+        if(value == null) return mix(h, -1);
+
+        h = mix(h, value.length());
+        for(int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Security;
+import java.util.concurrent.ForkJoinPool;
+
+/* CHAIN VALIDATOR CHECK:
+    Checks that ChainValidator's checkpoint never hides a block that was changed after it was validated:
+
+        java ChainValidatorCheck [seed=42]
+
+    A fixture chain is validated once, so the checkpoint covers all of it. Then, for the block just above genesis and
+    for the tip, each field validation depends on is changed in place in turn: the nonce, the timestamp, a
+    transaction's value, an output's value, a signature byte, and the transaction list itself. Every change must make
+    validate() fail, and undoing it must make validate() pass again. Last, a block appended after the checkpoint must
+    be validated on its own, without dropping the checkpoint.
+
+    Then the chain is written to a BlockStore with a UTXO snapshot in the middle and restored like a node restarts:
+    validation must start at the snapshot, and a change to a block below it must still be caught.
+
+    Exits with status 1 on the first change that goes unnoticed.
+*/
+public class ChainValidatorCheck {
+
+    private static final int CHAIN_LENGTH = 8;
+    private static final int TRANSACTIONS_PER_BLOCK = 4;
+    private static final int DIFFICULTY = 2;
+
+    private final ChainValidator validator = new ChainValidator(ForkJoinPool.commonPool());
+
+    public static void main(String[] args) throws IOException {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        NoobChain.log.setLevel(EventLog.Level.OFF); // every failure below is expected, validate()'s result is what counts
+
+        long seed = args.length > 0 ? Long.parseLong(args[0].substring(args[0].indexOf('=') + 1)) : 42;
+
+        try {
+            new ChainValidatorCheck().run(seed);
+        } catch(AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+
+        System.out.println("ChainValidator caught every change");
+    }
+
+    private void run(long seed) throws IOException {
+        ChainFixture fixture = new ChainFixture(seed);
+        fixture.chain(CHAIN_LENGTH, TRANSACTIONS_PER_BLOCK, DIFFICULTY);
+
+        check(validate(), "the fixture chain is invalid");
+        check(validator.getValidatedHeight() == CHAIN_LENGTH, "the checkpoint doesn't cover the chain");
+
+        for(int height : new int[] {1, CHAIN_LENGTH - 1}) {
+            Block block = NoobChain.blockchain.get(height);
+            Transaction transaction = block.transactions.get(0);
+
+            tamper(height, "nonce", () -> block.nonce += 1, () -> block.nonce -= 1);
+            tamper(height, "timestamp", () -> block.timeStamp += 1, () -> block.timeStamp -= 1);
+            tamper(height, "transaction value", () -> transaction.value += 1, () -> transaction.value -= 1);
+            tamper(height, "output value", () -> transaction.outputs.get(0).value += 1, () -> transaction.outputs.get(0).value -= 1);
+            tamper(height, "signature", () -> transaction.signature[transaction.signature.length - 1] ^= 1,
+                    () -> transaction.signature[transaction.signature.length - 1] ^= 1);
+            tamper(height, "transactions", () -> block.transactions.remove(0), () -> block.transactions.add(0, transaction));
+
+            System.out.printf("block %d: every change was caught%n", height);
+        }
+
+        Block block = new Block(NoobChain.blockchain.get(CHAIN_LENGTH - 1).hash);
+        block.addTransaction(fixture.bank.sendFunds(fixture.randomWallet().address, Amount.coins(1)));
+        block.mineBlock(DIFFICULTY);
+        NoobChain.blockchain.add(block);
+
+        check(validate(), "the appended block is invalid");
+        check(validator.getValidatedHeight() == CHAIN_LENGTH + 1, "the appended block wasn't checkpointed");
+        System.out.println("appended block validated after the checkpoint");
+
+        restored();
+    }
+
+    // Stores the chain with a snapshot halfway, restores it through NoobChain.restore() and tampers below the snapshot.
+    private void restored() throws IOException {
+        Path directory = Files.createTempDirectory("chain-validator-check");
+        int snapshotHeight = NoobChain.blockchain.size() / 2;
+
+        UTXOSet utxos = new UTXOSet();
+        UTXOSnapshot.replay(NoobChain.blockchain.subList(0, snapshotHeight + 1), 0, utxos);
+        UTXOSnapshot.write(directory, utxos, snapshotHeight, NoobChain.blockchain.get(snapshotHeight).hash);
+
+        try(BlockStore store = BlockStore.open(directory.resolve("blocks"))) {
+            for(Block block : NoobChain.blockchain) {
+                store.append(block);
+            }
+        }
+
+        NoobChain.blockStore = BlockStore.open(directory.resolve("blocks"));
+        NoobChain.snapshotDirectory = directory;
+        NoobChain.restore();
+
+        check(NoobChain.validator.getValidatedHeight() == snapshotHeight + 1, "validation doesn't start at the snapshot");
+        check(NoobChain.isChainValid(), "the restored chain is invalid");
+
+        Block block = NoobChain.blockchain.get(1);
+        block.nonce += 1;
+        check(!NoobChain.isChainValid(), "nonce changed in restored block 1 went unnoticed");
+        block.nonce -= 1;
+        check(NoobChain.isChainValid(), "nonce restored in block 1 is still invalid");
+
+        NoobChain.blockStore.close();
+        NoobChain.blockStore = null;
+        System.out.printf("restored chain validated from the snapshot at height %d, changes below it caught%n", snapshotHeight);
+    }
+
+    // Makes a change below the checkpoint, expects validation to fail, undoes it and expects it to pass again.
+    private void tamper(int height, String what, Runnable change, Runnable undo) {
+        change.run();
+        check(!validate(), what + " changed in block " + height + " went unnoticed");
+
+        undo.run();
+        check(validate(), what + " restored in block " + height + " is still invalid");
+    }
+
+    private boolean validate() {
+        return validator.validate(NoobChain.blockchain, NoobChain.difficulty, NoobChain.genesisTransaction);
+    }
+
+    private static void check(boolean condition, String message) {
+        if(!condition) throw new AssertionError(message);
+    }
+}
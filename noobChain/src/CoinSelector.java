@@ -0,0 +1,169 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/* COIN SELECTION:
+    Picks which of a wallet's unspent outputs pay for a transaction. sendFunds() used to walk the wallet's HashMap in
+    whatever order it happened to have and take outputs until there was enough. That gives transactions with lots of
+    inputs, every one of them verified again by every node, and small change outputs that are never worth spending, so
+    the UTXO set keeps growing.
+
+    The wallet keeps its outputs in a value-ordered index, a TreeSet sorted by value (and by id between outputs of the
+    same value), which is what every strategy works from:
+
+        LARGEST_FIRST       the biggest outputs until there's enough. The fewest inputs a transaction can have.
+
+        BRANCH_AND_BOUND    looks for a set of outputs that adds up to exactly the amount, so the transaction needs no
+                            change output at all. It's a depth first search over the outputs from largest to smallest
+                            that drops a branch as soon as it overshoots, or can't reach the amount with what's left,
+                            and gives up after MAX_TRIES steps. Without an exact match it takes the single smallest
+                            output that covers the amount, and failing that falls back to LARGEST_FIRST.
+
+        CONSOLIDATE         what LARGEST_FIRST takes, plus the wallet's smallest outputs up to MAX_INPUTS in total.
+                            One transaction turns a pile of small outputs into a single change output, which is how a
+                            wallet shrinks its share of the UTXO set while it's making a payment anyway.
+
+    Every strategy returns null when the outputs don't add up to the amount.
+*/
+public class CoinSelector {
+
+    public enum Strategy {
+        LARGEST_FIRST,
+        BRANCH_AND_BOUND,
+        CONSOLIDATE
+    }
+
+    public static final int MAX_TRIES = 100_000; // steps of the branch and bound search
+    public static final int MAX_INPUTS = 32; // inputs a consolidating transaction may take
+
+    // Smallest value first; outputs of the same value are told apart by id so the set keeps all of them.
+    public static final Comparator<TransactionOutput> BY_VALUE = Comparator.<TransactionOutput>comparingLong(output -> output.value)
+            .thenComparing(output -> output.id);
+
+    public static List<TransactionOutput> select(@NotNull Strategy strategy, @NotNull NavigableSet<TransactionOutput> outputs, long value) {
+        switch (strategy) {
+            case LARGEST_FIRST:
+                return largestFirst(outputs, value);
+            case BRANCH_AND_BOUND:
+                return branchAndBound(outputs, value);
+            case CONSOLIDATE:
+                return consolidate(outputs, value);
+            default:
+                throw new IllegalArgumentException("Unknown strategy: " + strategy);
+        }
+    }
+
+    public static NavigableSet<TransactionOutput> newIndex() {
+        return new TreeSet<>(BY_VALUE);
+    }
+
+    private static List<TransactionOutput> largestFirst(NavigableSet<TransactionOutput> outputs, long value) {
+        List<TransactionOutput> selected = new ArrayList<>();
+        long total = 0;
+
+        for(Iterator<TransactionOutput> largest = outputs.descendingIterator(); largest.hasNext() && (total < value || selected.isEmpty()); ) {
+            TransactionOutput output = largest.next();
+            selected.add(output);
+            total = Math.addExact(total, output.value);
+        }
+
+        return total < value || selected.isEmpty() ? null : selected;
+    }
+
+    private static List<TransactionOutput> branchAndBound(NavigableSet<TransactionOutput> outputs, long value) {
+        /* FUNCTION BREAKDOWN:
+            The outputs are searched from largest to smallest. At every output the search first tries including it,
+            then leaving it out, for at most MAX_TRIES steps. 'remaining[i]' is the total of every output from i on,
+            so a branch whose total plus everything still to come is below the amount can't succeed and is dropped,
+            and so is one that has gone over it. Amounts are longs, so an exact match here is an exact match in
+            Transaction.getInputsValue() too.
+
+            'nextValue[i]' is the first output after i with a smaller value. Leaving out output i and then including
+            another output of the same value only repeats the branch just tried, so the search jumps straight past the
+            run. Without the index it walked the run at every backtrack, quadratic in a wallet of equal outputs.
+         */
+        TransactionOutput[] candidates = outputs.descendingSet().toArray(new TransactionOutput[0]);
+
+        long[] remaining = new long[candidates.length + 1];
+        int[] nextValue = new int[candidates.length];
+        for(int i = candidates.length - 1; i >= 0; i--) {
+            remaining[i] = Math.addExact(remaining[i + 1], candidates[i].value);
+            nextValue[i] = i + 1 < candidates.length && candidates[i + 1].value == candidates[i].value ? nextValue[i + 1] : i + 1;
+        }
+
+        if(remaining[0] >= value) {
+            List<TransactionOutput> selected = search(candidates, remaining, nextValue, value);
+            if(selected != null) return selected;
+        }
+
+        // No exact match: one input, and the change is the least it can be for one input.
+        TransactionOutput single = outputs.ceiling(probe(value));
+        if(single != null) {
+            List<TransactionOutput> selected = new ArrayList<>();
+            selected.add(single);
+            return selected;
+        }
+
+        return largestFirst(outputs, value);
+    }
+
+    // The branch and bound search itself, with an explicit stack so a wallet with many outputs can't overflow the thread's.
+    private static List<TransactionOutput> search(TransactionOutput[] candidates, long[] remaining, int[] nextValue, long value) {
+        int[] chosen = new int[candidates.length]; // indexes of the included outputs, in order
+        long[] totals = new long[candidates.length]; // the total before each of them was included
+        int depth = 0;
+        int i = 0;
+        long total = 0;
+
+        for(int tries = 0; tries < MAX_TRIES; tries++) {
+            if(total == value) {
+                List<TransactionOutput> selected = new ArrayList<>(depth);
+                for(int d = 0; d < depth; d++) selected.add(candidates[chosen[d]]);
+                return selected;
+            }
+
+            if(total < value && i < candidates.length && total + remaining[i] >= value) {
+                // Include output i and go deeper.
+                chosen[depth] = i;
+                totals[depth++] = total;
+                total += candidates[i].value;
+                i++;
+                continue;
+            }
+
+            // Dead end: go back to the last output included and try the branch without it.
+            if(depth == 0) return null;
+
+            total = totals[--depth];
+            // Leaving out an output of the same value as the one just left out only repeats that branch.
+            i = nextValue[chosen[depth]];
+        }
+
+        return null;
+    }
+
+    private static List<TransactionOutput> consolidate(NavigableSet<TransactionOutput> outputs, long value) {
+        List<TransactionOutput> selected = largestFirst(outputs, value);
+        if(selected == null) return null;
+
+        // Only outputs smaller than everything already taken, so none is picked twice.
+        TransactionOutput smallestTaken = selected.get(selected.size() - 1);
+        for(Iterator<TransactionOutput> smallest = outputs.iterator(); smallest.hasNext() && selected.size() < MAX_INPUTS; ) {
+            TransactionOutput output = smallest.next();
+            if(BY_VALUE.compare(output, smallestTaken) >= 0) break;
+            selected.add(output);
+        }
+
+        return selected;
+    }
+
+    // Sorts before every real output of 'value', for ceiling() lookups.
+    private static TransactionOutput probe(long value) {
+        return new TransactionOutput("", null, value, null);
+    }
+}
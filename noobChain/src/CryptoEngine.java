@@ -0,0 +1,165 @@
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+
+/* CRYPTO ENGINE:
+    The one place the chain gets its digests, signatures and key pairs from. Every getInstance() call walks the list of
+    installed providers and builds a new engine object, and the chain used to do that for every single hash and
+    signature. Here each thread keeps one MessageDigest, one Signature and one KeyPairGenerator and reuses them.
+
+    Two engines are available:
+
+        BOUNCY_CASTLE   "ECDSA" signatures (SHA-1 with ECDSA) and keys on prime192v1, what the chain always used
+        JDK             the JDK's own EC provider, SHA1withECDSA and keys on secp256r1
+
+    They produce the same kind of signature, so either one verifies the other's signatures as long as it supports the
+    curve of the key. The JDK provider doesn't support prime192v1, which is why its wallets use secp256r1. Switching
+    engines therefore only makes sense for a fresh chain, or one whose keys are all on a curve both support.
+
+    The engine in use is chosen with -Dnoobchain.crypto=bc (the default) or -Dnoobchain.crypto=jdk, or with use().
+    Run Benchmarks with engine=bc,jdk to compare them on a given machine.
+
+    SHA-256 doesn't depend on the engine: it always comes from the first provider that offers it, which is the JDK's
+    (with the CPU's SHA instructions where it has them), just as MessageDigest.getInstance("SHA-256") did before.
+*/
+public final class CryptoEngine {
+
+    public static final CryptoEngine BOUNCY_CASTLE = new CryptoEngine("bc", "BC", "ECDSA", "ECDSA", "prime192v1");
+    public static final CryptoEngine JDK = new CryptoEngine("jdk", null, "EC", "SHA1withECDSA", "secp256r1");
+
+    private static volatile CryptoEngine current = forName(System.getProperty("noobchain.crypto", "bc"));
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private final String name;
+    private final String providerName; // null for the JDK's default providers
+    private final String keyAlgorithm;
+    private final String signatureAlgorithm;
+    private final String curve;
+
+    private final ThreadLocal<Signature> signatures;
+    private final ThreadLocal<KeyPairGenerator> keyGenerators;
+    private final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(SecureRandom::new);
+
+    private CryptoEngine(String name, String providerName, String keyAlgorithm, String signatureAlgorithm, String curve) {
+        this.name = name;
+        this.providerName = providerName;
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.curve = curve;
+
+        signatures = ThreadLocal.withInitial(() -> {
+            try {
+                Provider provider = provider();
+                return provider == null ? Signature.getInstance(signatureAlgorithm) : Signature.getInstance(signatureAlgorithm, provider);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        keyGenerators = ThreadLocal.withInitial(() -> {
+            try {
+                Provider provider = provider();
+                return provider == null ? KeyPairGenerator.getInstance(keyAlgorithm) : KeyPairGenerator.getInstance(keyAlgorithm, provider);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    // The engine used by StringUtil and Wallet.
+    public static CryptoEngine get() {
+        return current;
+    }
+
+    public static void use(@NotNull CryptoEngine engine) {
+        current = engine;
+    }
+
+    // "bc" or "jdk".
+    public static CryptoEngine forName(@NotNull String name) {
+        if(name.equalsIgnoreCase(BOUNCY_CASTLE.name)) return BOUNCY_CASTLE;
+        if(name.equalsIgnoreCase(JDK.name)) return JDK;
+
+        throw new IllegalArgumentException("Unknown crypto engine: " + name);
+    }
+
+    // This thread's SHA-256 digest, reset and ready to use.
+    public static MessageDigest sha256() {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return digest;
+    }
+
+    public static byte[] sha256(byte[] input) {
+        return sha256().digest(input);
+    }
+
+    public static byte[] sha256(String input) {
+        return sha256(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public byte[] sign(@NotNull PrivateKey privateKey, byte[] data) throws GeneralSecurityException {
+        Signature signature = signatures.get();
+        signature.initSign(privateKey);
+        signature.update(data);
+        return signature.sign();
+    }
+
+    public boolean verify(@NotNull PublicKey publicKey, byte[] data, byte[] signatureBytes) throws GeneralSecurityException {
+        Signature signature = signatures.get();
+        signature.initVerify(publicKey);
+        signature.update(data);
+        return signature.verify(signatureBytes);
+    }
+
+    // A new key pair on this engine's curve, from 'random' or, when it's null, from this thread's SecureRandom.
+    public KeyPair generateKeyPair(SecureRandom random) throws GeneralSecurityException {
+        KeyPairGenerator generator = keyGenerators.get();
+        generator.initialize(new ECGenParameterSpec(curve), random == null ? randoms.get() : random);
+        return generator.generateKeyPair();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCurve() {
+        return curve;
+    }
+
+    private Provider provider() {
+        if(providerName == null) return null;
+
+        Provider provider = Security.getProvider(providerName);
+        if(provider == null) {
+            // The chain registers Bouncy Castle at start-up, but code that didn't (tools, tests) still gets it here.
+            Security.addProvider(new BouncyCastleProvider());
+            provider = Security.getProvider(providerName);
+        }
+        return provider;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
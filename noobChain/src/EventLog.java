@@ -0,0 +1,235 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/* EVENT LOG:
+    What the chain has to say: transactions accepted and rejected, blocks mined, the chain checked. The chain used to
+    println straight from processTransaction(), addTransaction() and friends, so every transaction waited on the
+    console, and under several threads the lines came out interleaved. Now those places log an Event and carry on; a
+    single background thread takes the events and hands them to the sink, which by default prints each event's message
+    the way the chain always printed it.
+
+    Every event has a Level, and an event below the log's level is dropped on entry: no Event is made and no slot is
+    claimed. Its message has already been built by then, by the caller; a call site that would build an expensive
+    message on a hot path can ask isEnabled() first. The level starts out as the noobchain.log system property (INFO
+    when it isn't set), so -Dnoobchain.log=DEBUG shows more and -Dnoobchain.log=OFF nothing at all.
+
+    RING BUFFER:
+    Events go through a fixed size ring of slots, so logging never allocates beyond the event itself and never takes
+    a lock. Any number of threads may log at once; each claims the next slot with a compare and set on 'tail', fills it
+    and then publishes it by setting the slot's sequence number. The writer thread reads the slots in order and hands
+    each one back to the producers by moving its sequence number one lap on. (This is Dmitry Vyukov's bounded queue,
+    with a single consumer.)
+
+    When the writer falls behind and the ring is full, the event is dropped and counted instead of making the caller
+    wait: losing a log line is better than slowing down admission. getDropped() says how many were lost, and so does
+    the log.dropped metric.
+
+    The writer sleeps for a millisecond whenever the ring is empty, so logging never has to wake it up. flush() waits
+    until everything logged so far has been written, and runs on shutdown so the last events aren't lost.
+*/
+public class EventLog {
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        OFF // only for setLevel(), no event has it
+    }
+
+    public enum Type {
+        MESSAGE, // anything else
+        TRANSACTION_ACCEPTED,
+        TRANSACTION_REJECTED, // see the event's reason
+        BLOCK_MINED,
+        CHAIN_VALID,
+        CHAIN_INVALID
+    }
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1); // writer's sleep while there's nothing to write
+
+    private final Event[] events;
+    private final AtomicLongArray sequences; // per slot: its position when it's free, its position + 1 once it's filled
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next position to fill
+    private volatile long head; // next position to write, only the writer moves it
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile Level level;
+    private volatile Consumer<Event> sink = event -> System.out.println(event.message);
+    private final Thread writer;
+
+    // 'capacity' is rounded up to a power of two, and must be at least two. With a single slot, the sequence that marks
+    // it filled for one position is the one that marks it free for the next, and an unwritten event gets overwritten.
+    public EventLog(int capacity) {
+        if(capacity < 2) throw new IllegalArgumentException("EventLog needs at least two slots: " + capacity);
+
+        int slots = Integer.highestOneBit(capacity);
+        if(slots < capacity) slots <<= 1;
+
+        events = new Event[slots];
+        sequences = new AtomicLongArray(slots);
+        for(int i = 0; i < slots; i++) sequences.set(i, i);
+        mask = slots - 1;
+
+        level = Level.valueOf(System.getProperty("noobchain.log", Level.INFO.name()).toUpperCase());
+
+        writer = new Thread(this::write, "noobchain-event-log");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1000)));
+    }
+
+    public boolean isEnabled(@NotNull Level level) {
+        return level != Level.OFF && level.compareTo(this.level) >= 0;
+    }
+
+    public void setLevel(@NotNull Level level) {
+        this.level = level;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    // Where events go, on the writer thread. The sink must not log itself, or a full ring would drop its own events.
+    public void setSink(@NotNull Consumer<Event> sink) {
+        this.sink = sink;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public void debug(@NotNull String message) {
+        log(Level.DEBUG, Type.MESSAGE, null, message);
+    }
+
+    public void info(@NotNull String message) {
+        log(Level.INFO, Type.MESSAGE, null, message);
+    }
+
+    public void warn(@NotNull String message) {
+        log(Level.WARN, Type.MESSAGE, null, message);
+    }
+
+    public void error(@NotNull String message) {
+        log(Level.ERROR, Type.MESSAGE, null, message);
+    }
+
+    public void transactionAccepted(@NotNull String message) {
+        log(Level.INFO, Type.TRANSACTION_ACCEPTED, TransactionStatus.ACCEPTED, message);
+    }
+
+    public void transactionRejected(@NotNull TransactionStatus reason, @NotNull String message) {
+        log(Level.WARN, Type.TRANSACTION_REJECTED, reason, message);
+    }
+
+    public void blockMined(@NotNull String message) {
+        log(Level.INFO, Type.BLOCK_MINED, null, message);
+    }
+
+    public void chainChecked(boolean valid, @NotNull String message) {
+        if(valid) {
+            log(Level.INFO, Type.CHAIN_VALID, null, message);
+        } else {
+            log(Level.ERROR, Type.CHAIN_INVALID, null, message);
+        }
+    }
+
+    // Queues an event, or drops it if the ring is full. Returns whether it was queued.
+    public boolean log(@NotNull Level level, @NotNull Type type, TransactionStatus reason, @NotNull String message) {
+        if(!isEnabled(level)) return false;
+
+        long position = tail.get();
+        while(true) {
+            int slot = (int) position & mask;
+            long behind = sequences.get(slot) - position;
+
+            if(behind == 0) {
+                // The slot is free for this position, claim it.
+                if(tail.compareAndSet(position, position + 1)) break;
+                position = tail.get();
+            } else if(behind < 0) {
+                // The slot still holds the event from one lap ago: the ring is full.
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get(); // another thread claimed it first
+            }
+        }
+
+        int slot = (int) position & mask;
+        events[slot] = new Event(System.currentTimeMillis(), level, type, reason, message);
+        sequences.set(slot, position + 1); // publish it to the writer
+        return true;
+    }
+
+    // Waits up to 'timeoutMillis' until every event logged before the call has been written. Returns whether they were.
+    public boolean flush(long timeoutMillis) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        while(head < target) {
+            if(!writer.isAlive() || System.nanoTime() > deadline) return false;
+
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+        return true;
+    }
+
+    private void write() {
+        long position = head;
+
+        while(true) {
+            int slot = (int) position & mask;
+
+            if(sequences.get(slot) != position + 1) {
+                LockSupport.parkNanos(IDLE_NANOS); // nothing to write yet
+                continue;
+            }
+
+            Event event = events[slot];
+            events[slot] = null;
+            sequences.set(slot, position + events.length); // free the slot for the next lap
+
+            try {
+                sink.accept(event);
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // a broken sink mustn't stop the writer
+            }
+
+            head = ++position; // only now, so flush() waits for the sink too
+        }
+    }
+
+    public static final class Event {
+
+        public final long timeMillis;
+        public final Level level;
+        public final Type type;
+        public final TransactionStatus reason; // why a transaction was accepted or rejected, null for other events
+        public final String message;
+
+        Event(long timeMillis, Level level, Type type, TransactionStatus reason, String message) {
+            this.timeMillis = timeMillis;
+            this.level = level;
+            this.type = type;
+            this.reason = reason;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return timeMillis + " " + level + " " + type + (reason == null ? "" : " " + reason) + " " + message;
+        }
+    }
+}
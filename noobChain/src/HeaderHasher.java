@@ -0,0 +1,88 @@
+import org.jetbrains.annotations.NotNull;
+
+/* BLOCK HEADER LAYOUT:
+    A block hash is the SHA-256 of a fixed 76 byte binary header:
+
+        bytes  0..31   previousHash as raw digest bytes
+        bytes 32..63   merkleRoot as raw digest bytes
+        bytes 64..71   timeStamp, big-endian
+        bytes 72..75   nonce, big-endian
+
+    SHA-256 works on 64 byte blocks, so the previous hash and Merkle root fill the first block exactly. That block never
+    changes while a header is being mined, so it is compressed once into a midstate. Each nonce attempt then only
+    copies the midstate and runs the final compression over the timestamp, nonce and padding, without allocating.
+
+    Hashes that are not full 64 character digests (the "0" used for the genesis block's previous hash, or the empty
+    Merkle root of a block without transactions) are left-padded with zero bytes, see StringUtil.getHashBytes.
+*/
+public class HeaderHasher {
+
+    public static final int HEADER_LENGTH = 76;
+    public static final int NONCE_OFFSET = 72;
+
+    private static final int LENGTH_IN_BITS = HEADER_LENGTH * 8;
+
+    private final int[] midstate = new int[8];
+    private final int[] tail = new int[16]; // second SHA-256 block: timestamp, nonce and padding
+    private final int[] schedule = new int[64];
+    private final int[] state = new int[8];
+
+    public HeaderHasher(String previousHash, String merkleRoot, long timeStamp) {
+        byte[] prefix = new byte[64];
+        System.arraycopy(StringUtil.getHashBytes(previousHash), 0, prefix, 0, 32);
+        System.arraycopy(StringUtil.getHashBytes(merkleRoot), 0, prefix, 32, 32);
+
+        System.arraycopy(Sha256.IV, 0, midstate, 0, 8);
+        Sha256.loadWords(prefix, 0, schedule);
+        Sha256.compress(midstate, schedule);
+
+        tail[3] = 0x80000000; // the padding bit straight after the nonce
+        tail[15] = LENGTH_IN_BITS;
+        setTimeStamp(timeStamp);
+    }
+
+    public HeaderHasher(@NotNull Block block) {
+        this(block.previousHash, block.merkleRoot, block.timeStamp);
+    }
+
+    // Changing the timestamp only touches the second block, the midstate stays valid.
+    public void setTimeStamp(long timeStamp) {
+        tail[0] = (int) (timeStamp >>> 32);
+        tail[1] = (int) timeStamp;
+    }
+
+    // Hashes the header with the given nonce. The digest stays in this hasher until the next call.
+    public void hash(int nonce) {
+        System.arraycopy(tail, 0, schedule, 0, 16);
+        schedule[2] = nonce;
+
+        System.arraycopy(midstate, 0, state, 0, 8);
+        Sha256.compress(state, schedule);
+    }
+
+    // Hashes the header with the given nonce and checks the digest starts with at least 'zeroBits' zero bits.
+    public boolean meetsTarget(int nonce, int zeroBits) {
+        hash(nonce);
+        return Sha256.leadingZeroBits(state) >= zeroBits;
+    }
+
+    // Hex form of the last digest computed by hash() or meetsTarget().
+    public String getHash() {
+        return Sha256.toHex(state);
+    }
+
+    // Words of the first block after compression, shared by every nonce. Read-only for the nonce searchers.
+    int[] getMidstate() {
+        return midstate;
+    }
+
+    // The second block before the nonce is filled in. Read-only for the nonce searchers.
+    int[] getTail() {
+        return tail;
+    }
+
+    // A difficulty counts leading zero hex characters, each of which is four zero bits.
+    public static int getTargetBits(int difficulty) {
+        return difficulty * 4;
+    }
+}
@@ -0,0 +1,86 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/* LIGHT CLIENT:
+    Follows the chain from block headers alone, for services that only need to know whether a transaction made it into
+    a block. It keeps a few dozen bytes per block instead of every transaction.
+
+    Each header is checked as it's added, with the same checks isChainValid() does on headers:
+
+        - the stored hash is the hash of the header
+        - the hash meets the difficulty target
+        - previousHash is the hash of the header before it
+
+    With the headers verified, a MerkleProof against a header's merkleRoot is enough to show a transaction is in that
+    block. That costs log2(n) hashes for a block of n transactions, and the block itself is never loaded.
+*/
+public class LightClient {
+
+    private final int difficulty;
+    private final ArrayList<BlockHeader> headers = new ArrayList<>();
+    private final HashMap<String, Integer> heights = new HashMap<>(); // block hash -> height
+
+    public LightClient(int difficulty) {
+        this.difficulty = difficulty;
+    }
+
+    // Adds the next header of the chain if it checks out, returns whether it was added.
+    public synchronized boolean addHeader(@NotNull BlockHeader header) {
+        /* FUNCTION BREAKDOWN:
+            The genesis header is taken as it is, the same as isChainValid() never checks block 0. Every header after
+            it has to link to the current tip, hash to its stored hash and carry enough proof of work. The proof of work
+            is checked on the raw digest by HeaderHasher, like mining does, rather than on the hex String.
+         */
+        if(!headers.isEmpty()) {
+            BlockHeader tip = headers.get(headers.size() - 1);
+
+            if(!tip.hash.equals(header.previousHash)) {
+                NoobChain.log.warn("#Previous Hashes not equal");
+                return false;
+            }
+
+            HeaderHasher hasher = new HeaderHasher(header.previousHash, header.merkleRoot, header.timeStamp);
+            if(!hasher.meetsTarget(header.nonce, HeaderHasher.getTargetBits(difficulty))) {
+                NoobChain.log.warn("#This block hasn't been mined");
+                return false;
+            }
+            if(!hasher.getHash().equals(header.hash)) {
+                NoobChain.log.warn("#Current Hashes not equal");
+                return false;
+            }
+        }
+
+        heights.put(header.hash, headers.size());
+        headers.add(header);
+
+        return true;
+    }
+
+    public boolean addBlock(@NotNull Block block) {
+        return addHeader(new BlockHeader(block));
+    }
+
+    // Whether the proof shows its transaction is in the block with this hash. False for blocks the client doesn't have.
+    public synchronized boolean verifyInclusion(String blockHash, MerkleProof proof) {
+        Integer height = heights.get(blockHash);
+
+        if(height == null || proof == null) return false;
+
+        return proof.verify(headers.get(height).merkleRoot);
+    }
+
+    public synchronized BlockHeader getHeader(int height) {
+        return height >= 0 && height < headers.size() ? headers.get(height) : null;
+    }
+
+    public synchronized BlockHeader getHeader(String hash) {
+        Integer height = heights.get(hash);
+        return height == null ? null : headers.get(height);
+    }
+
+    public synchronized int size() {
+        return headers.size();
+    }
+}
@@ -0,0 +1,460 @@
+import com.google.gson.GsonBuilder;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.Security;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/* LOAD GENERATOR:
+    End to end load on the whole chain, instead of the two wallets NoobChain.main() plays with. Run it with:
+
+        java LoadGenerator [wallets=1000] [transactions=5000] [rate=500] [blockSize=500] [blockInterval=1000]
+                           [difficulty=2] [funding=1000] [timeout=60000] [seed=42] [validate=true] [out=]
+
+    It makes 'wallets' wallets, funds each of them with 'funding' coins, then has them pay each other
+    'transactions' times at 'rate' payments per second. Every payment runs in a thread of its own: it builds the
+    transaction with Wallet.sendFunds(), submits it to a Mempool and then waits until it's in a mined block. Meanwhile
+    a miner thread takes a block template from the mempool whenever 'blockSize' transactions are waiting or
+    'blockInterval' milliseconds have passed, and mines it with NoobChain.addBlock().
+
+    Waiting for a block is most of a payment's life, so at any moment thousands of payments are parked. They run on
+    virtual threads when the JVM has them (Java 21, or 19 and 20 with --enable-preview) and on a cached pool of
+    platform threads otherwise. The load is open loop: payments start on schedule whether or not earlier ones have
+    finished, so a chain that can't keep up shows it in the latencies instead of quietly slowing the load down.
+
+    A wallet has at most one payment in flight. Its next payment would pick the same unspent outputs while the first
+    one is still pending, and the mempool would turn it away as a double spend. A payment that comes due while its
+    wallet is still busy waits in that wallet's queue and is started as soon as the one before it has finished, so
+    every payment in the schedule is made and the report counts how many had to wait.
+
+    The report gives the confirmed transactions per second, confirmation latency percentiles (from the time the
+    payment was due to the block being added, so the time spent queued behind the wallet counts), how the UTXO set
+    grew, and heap and GC figures. With 'out' set it's also written as JSON, together with everything in
+    NoobChain.metrics. The metrics are on JMX during the run too.
+
+    The seed fixes the wallets and the whole schedule of payments: who pays whom, how much, and when. Which payments
+    share a block still depends on how fast the machine is.
+*/
+public class LoadGenerator {
+
+    private final Map<String, String> options = new HashMap<>();
+    private final int walletCount;
+    private final int transactions;
+    private final double rate;
+    private final int blockSize;
+    private final long blockIntervalMillis;
+    private final int difficulty;
+    private final long funding; // base units
+    private final long timeoutMillis;
+    private final long seed;
+
+    private final PrintStream console = System.out;
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private ChainFixture fixture;
+    private final Mempool mempool;
+
+    // The schedule, drawn from the seed before the run starts.
+    private int[] payers;
+    private int[] payees;
+    private long[] amounts;
+
+    private long scheduleStart; // payment i is due at scheduleStart + i / rate
+    private List<ArrayDeque<Integer>> queues; // per wallet, payments due while it had one in flight; guarded by the deque
+    private boolean[] busy; // per wallet, true while it has a payment in flight; guarded by the wallet's deque
+    private long[] latencies; // nanoseconds from the start of a payment to its block, 0 if it never got in one
+    private final ConcurrentHashMap<Transaction, CompletableFuture<Long>> waiting = new ConcurrentHashMap<>(); // pending -> confirmation time
+    private final AtomicLongArray statuses = new AtomicLongArray(TransactionStatus.values().length);
+    private final AtomicInteger running = new AtomicInteger(); // payments due and not yet finished, queued ones too
+    private final LongAdder queuedBehind = new LongAdder(); // payments that had to wait for their wallet
+    private final LongAdder notEnoughFunds = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private volatile boolean scheduleDone;
+
+    private final List<long[]> blocks = new ArrayList<>(); // height, transactions, mempool size, UTXO set size, heap used
+    private long peakHeap;
+
+    private LoadGenerator(String[] args) {
+        options.put("wallets", "1000");
+        options.put("transactions", "5000");
+        options.put("rate", "500");
+        options.put("blockSize", "500");
+        options.put("blockInterval", "1000");
+        options.put("difficulty", "2");
+        options.put("funding", "1000");
+        options.put("timeout", "60000");
+        options.put("seed", "42");
+        options.put("validate", "true");
+        options.put("out", "");
+
+        for(String arg : args) {
+            int split = arg.indexOf('=');
+            if(split < 0 || !options.containsKey(arg.substring(0, split))) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        walletCount = Integer.parseInt(options.get("wallets"));
+        transactions = Integer.parseInt(options.get("transactions"));
+        rate = Double.parseDouble(options.get("rate"));
+        blockSize = Integer.parseInt(options.get("blockSize"));
+        blockIntervalMillis = Long.parseLong(options.get("blockInterval"));
+        difficulty = Integer.parseInt(options.get("difficulty"));
+        funding = Amount.of(options.get("funding"));
+        timeoutMillis = Long.parseLong(options.get("timeout"));
+        seed = Long.parseLong(options.get("seed"));
+
+        if(walletCount < 2) throw new IllegalArgumentException("At least two wallets are needed");
+
+        mempool = new Mempool(Math.max(blockSize, walletCount)); // every wallet can have one payment pending
+    }
+
+    public static void main(String[] args) throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        NoobChain.registerMetrics(); // so a long run can be watched in jconsole
+
+        LoadGenerator generator = new LoadGenerator(args);
+
+        // The chain logs every transaction and block. At thousands per second that's only noise next to the report,
+        // so unless -Dnoobchain.log says otherwise only errors are shown.
+        if(System.getProperty("noobchain.log") == null) NoobChain.log.setLevel(EventLog.Level.ERROR);
+
+        generator.setUp();
+        generator.run();
+    }
+
+    private void setUp() {
+        long start = System.nanoTime();
+        console.printf(Locale.ROOT, "Creating %d wallets and funding them with %s coins each...%n", walletCount, Amount.format(funding));
+
+        fixture = new ChainFixture(seed, walletCount);
+        fixture.genesis(Math.multiplyExact(funding, walletCount + 1L), difficulty);
+        NoobChain.difficulty = difficulty;
+
+        for(int w = 0; w < walletCount; w += blockSize) {
+            Block block = new Block(lastHash());
+            for(int i = w; i < Math.min(walletCount, w + blockSize); i++) {
+                block.addTransaction(fixture.bank.sendFunds(fixture.wallets[i].address, funding));
+            }
+            NoobChain.addBlock(block);
+        }
+
+        payers = new int[transactions];
+        payees = new int[transactions];
+        amounts = new long[transactions];
+        for(int i = 0; i < transactions; i++) {
+            payers[i] = fixture.random.nextInt(walletCount);
+            payees[i] = (payers[i] + 1 + fixture.random.nextInt(walletCount - 1)) % walletCount; // never the payer
+            amounts[i] = Amount.coins(1 + fixture.random.nextInt(10));
+        }
+
+        queues = new ArrayList<>(walletCount);
+        for(int w = 0; w < walletCount; w++) {
+            queues.add(new ArrayDeque<>());
+        }
+        busy = new boolean[walletCount];
+        latencies = new long[transactions];
+
+        console.printf(Locale.ROOT, "Ready in %.1f s: %d blocks, %d unspent outputs%n%n",
+                (System.nanoTime() - start) / 1e9, NoobChain.blockchain.size(), NoobChain.UTXOs.size());
+    }
+
+    private void run() throws Exception {
+        /* FUNCTION BREAKDOWN:
+            Payment i is due at start + i / rate. The main thread sleeps until each one is due and hands it to the
+            executor; if it has fallen behind it hands them over straight away, so the schedule catches up instead of
+            drifting. A payment whose wallet still has one in flight goes to the back of that wallet's queue instead,
+            and pay() starts it when the one before it is done. Once the last payment has been handed over it waits
+            for the miner, which keeps going until every payment, queued ones included, has finished, confirmed or not.
+         */
+        String threads = "virtual";
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if(virtual == null) threads = "platform";
+        ExecutorService executor = virtual != null ? virtual : Executors.newCachedThreadPool();
+
+        console.printf(Locale.ROOT, "Running %d payments at %.1f/s on %s threads...%n", transactions, rate, threads);
+
+        int startHeight = NoobChain.blockchain.size();
+        int startUTXOs = NoobChain.UTXOs.size();
+        long startHeap = heapUsed();
+        long startGcCount = gcCount(), startGcMillis = gcMillis();
+
+        Thread miner = new Thread(this::mine, "load-miner");
+        miner.start();
+
+        long start = System.nanoTime();
+        scheduleStart = start;
+        for(int i = 0; i < transactions; i++) {
+            long due = due(i);
+            long now;
+            while((now = System.nanoTime()) < due) LockSupport.parkNanos(due - now);
+
+            running.incrementAndGet();
+
+            ArrayDeque<Integer> queue = queues.get(payers[i]);
+            synchronized(queue) {
+                if(busy[payers[i]]) {
+                    queue.add(i);
+                    queuedBehind.increment();
+                    continue;
+                }
+                busy[payers[i]] = true;
+            }
+
+            int payment = i;
+            executor.execute(() -> pay(executor, payment));
+        }
+        double submitSeconds = (System.nanoTime() - start) / 1e9;
+        scheduleDone = true;
+
+        miner.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        long endHeap = heapUsed();
+        peakHeap = Math.max(peakHeap, endHeap);
+
+        boolean valid = true;
+        double validationSeconds = 0;
+        if(Boolean.parseBoolean(options.get("validate"))) {
+            long validationStart = System.nanoTime();
+            valid = NoobChain.isChainValid();
+            validationSeconds = (System.nanoTime() - validationStart) / 1e9;
+        }
+
+        long[] confirmed = Arrays.stream(latencies).filter(latency -> latency > 0).sorted().toArray();
+        int started = transactions;
+        int minedBlocks = NoobChain.blockchain.size() - startHeight;
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("threads", threads);
+        report.put("payments", transactions);
+        report.put("targetRate", rate);
+        report.put("achievedRate", started / submitSeconds);
+        report.put("queuedBehindWallet", queuedBehind.sum());
+        report.put("confirmed", confirmed.length);
+        report.put("transactionsPerSecond", confirmed.length / seconds);
+        report.put("minedBlocks", minedBlocks);
+        report.put("latencyP50Millis", percentile(confirmed, 50));
+        report.put("latencyP90Millis", percentile(confirmed, 90));
+        report.put("latencyP99Millis", percentile(confirmed, 99));
+        report.put("latencyP999Millis", percentile(confirmed, 99.9));
+        report.put("latencyMaxMillis", percentile(confirmed, 100));
+        report.put("utxoSetStart", startUTXOs);
+        report.put("utxoSetEnd", NoobChain.UTXOs.size());
+        report.put("heapStartBytes", startHeap);
+        report.put("heapPeakBytes", peakHeap);
+        report.put("heapEndBytes", endHeap);
+        report.put("gcCount", gcCount() - startGcCount);
+        report.put("gcMillis", gcMillis() - startGcMillis);
+        report.put("chainValid", valid);
+
+        console.println();
+        console.printf(Locale.ROOT, "Payments:   %d due at %.1f/s (target %.1f/s), %d waited for their wallet's previous payment%n",
+                started, started / submitSeconds, rate, queuedBehind.sum());
+        console.printf(Locale.ROOT, "Confirmed:  %d in %d blocks, %.1f transactions/s over %.1f s%n",
+                confirmed.length, minedBlocks, confirmed.length / seconds, seconds);
+        console.printf(Locale.ROOT, "Not sent:   %d not enough funds, %d rejected by the mempool %s, %d never confirmed%n",
+                notEnoughFunds.sum(), started - notEnoughFunds.sum() - statuses.get(TransactionStatus.ACCEPTED.ordinal()),
+                rejections(), timedOut.sum());
+        console.printf(Locale.ROOT, "Latency:    p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms%n",
+                percentile(confirmed, 50), percentile(confirmed, 90), percentile(confirmed, 99), percentile(confirmed, 99.9), percentile(confirmed, 100));
+        console.printf(Locale.ROOT, "UTXO set:   %d -> %d unspent outputs (%+d)%n",
+                startUTXOs, NoobChain.UTXOs.size(), NoobChain.UTXOs.size() - startUTXOs);
+        console.printf(Locale.ROOT, "Heap:       %s at start, %s peak, %s at end, %d GCs taking %d ms%n",
+                megabytes(startHeap), megabytes(peakHeap), megabytes(endHeap), gcCount() - startGcCount, gcMillis() - startGcMillis);
+        if(Boolean.parseBoolean(options.get("validate"))) {
+            console.printf(Locale.ROOT, "Chain:      %s, checked in %.2f s%n", valid ? "valid" : "NOT VALID", validationSeconds);
+        }
+
+        if(!options.get("out").isEmpty()) {
+            Files.write(Paths.get(options.get("out")), toJson(report).getBytes("UTF-8"));
+            console.println("\nResults written to " + options.get("out"));
+        }
+    }
+
+    private void pay(Executor executor, int payment) {
+        long start = due(payment);
+        Wallet payer = fixture.wallets[payers[payment]];
+
+        try {
+            Transaction transaction = payer.sendFunds(fixture.wallets[payees[payment]].address, amounts[payment]);
+            if(transaction == null) {
+                notEnoughFunds.increment();
+                return;
+            }
+
+            // Registered before it's submitted, the miner could otherwise put it in a block before anyone waits for it.
+            CompletableFuture<Long> confirmation = new CompletableFuture<>();
+            waiting.put(transaction, confirmation);
+
+            TransactionStatus status = mempool.submit(transaction);
+            statuses.incrementAndGet(status.ordinal());
+            if(!status.isAccepted()) {
+                waiting.remove(transaction);
+                return;
+            }
+
+            try {
+                latencies[payment] = confirmation.get(timeoutMillis, TimeUnit.MILLISECONDS) - start;
+            } catch (TimeoutException e) {
+                waiting.remove(transaction);
+                timedOut.increment();
+            }
+        } catch (Exception e) {
+            e.printStackTrace(console);
+        } finally {
+            running.decrementAndGet();
+            next(executor, payers[payment]);
+        }
+    }
+
+    // Starts the wallet's next queued payment, or marks it idle if there's none.
+    private void next(Executor executor, int wallet) {
+        Integer payment;
+        ArrayDeque<Integer> queue = queues.get(wallet);
+        synchronized(queue) {
+            payment = queue.poll();
+            if(payment == null) busy[wallet] = false;
+        }
+
+        if(payment != null) executor.execute(() -> pay(executor, payment));
+    }
+
+    private long due(int payment) {
+        return scheduleStart + (long) (payment * 1e9 / rate);
+    }
+
+    private void mine() {
+        /* FUNCTION BREAKDOWN:
+            Waits for a full block's worth of transactions or for the block interval to pass, whichever comes first,
+            then mines whatever the mempool has. When the block is on the chain every payment in it is told, which
+            stamps its confirmation time. Stops once the schedule is done and no payment is still running.
+         */
+        long nextBlock = System.nanoTime() + blockIntervalMillis * 1_000_000L;
+
+        while(!(scheduleDone && running.get() == 0)) {
+            if(mempool.size() < blockSize && System.nanoTime() < nextBlock) {
+                LockSupport.parkNanos(1_000_000L);
+                continue;
+            }
+            nextBlock = System.nanoTime() + blockIntervalMillis * 1_000_000L;
+            if(mempool.size() == 0) continue;
+
+            Block block = mempool.createBlockTemplate(lastHash(), blockSize);
+            if(block.transactions.isEmpty()) continue;
+
+            NoobChain.addBlock(block);
+            long confirmedAt = System.nanoTime();
+
+            for(Transaction transaction : block.transactions) {
+                CompletableFuture<Long> confirmation = waiting.remove(transaction);
+                if(confirmation != null) confirmation.complete(confirmedAt);
+            }
+
+            long heap = heapUsed();
+            peakHeap = Math.max(peakHeap, heap);
+            blocks.add(new long[] {NoobChain.blockchain.size() - 1, block.transactions.size(), mempool.size(), NoobChain.UTXOs.size(), heap});
+            console.printf(Locale.ROOT, "#Block %d mined: %d transactions, %d waiting, %d unspent outputs, %s heap%n",
+                    NoobChain.blockchain.size() - 1, block.transactions.size(), mempool.size(), NoobChain.UTXOs.size(), megabytes(heap));
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() where the JVM has it, null where it doesn't.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // no such method before Java 19, and it throws before 21 unless preview features are on
+        }
+    }
+
+    private static String lastHash() {
+        return NoobChain.blockchain.get(NoobChain.blockchain.size() - 1).hash;
+    }
+
+    private String rejections() {
+        StringBuilder rejected = new StringBuilder();
+
+        for(TransactionStatus status : TransactionStatus.values()) {
+            long count = statuses.get(status.ordinal());
+            if(status.isAccepted() || count == 0) continue;
+            rejected.append(rejected.length() == 0 ? "" : ", ").append(status).append('=').append(count);
+        }
+
+        return rejected.length() == 0 ? "" : "(" + rejected + ")";
+    }
+
+    // The nearest-rank percentile of sorted nanosecond latencies, in milliseconds.
+    private static double percentile(long[] sorted, double percentile) {
+        if(sorted.length == 0) return 0;
+
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)] / 1e6;
+    }
+
+    private long heapUsed() {
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    // The report with the options, the metrics and the block samples, as JSON.
+    private String toJson(Map<String, Object> report) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("options", options);
+        json.putAll(report);
+        json.put("metrics", NoobChain.metrics.snapshot());
+
+        List<Map<String, Long>> samples = new ArrayList<>(blocks.size());
+        for(long[] block : blocks) {
+            Map<String, Long> sample = new LinkedHashMap<>();
+            sample.put("height", block[0]);
+            sample.put("transactions", block[1]);
+            sample.put("waiting", block[2]);
+            sample.put("utxoSetSize", block[3]);
+            sample.put("heapUsedBytes", block[4]);
+            samples.add(sample);
+        }
+        json.put("blockSamples", samples);
+
+        return new GsonBuilder().setPrettyPrinting().create().toJson(json) + "\n";
+    }
+}
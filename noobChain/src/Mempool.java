@@ -0,0 +1,188 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/* MEMPOOL:
+    Signed transactions waiting to go into a block. Any number of threads can submit at once; every transaction is
+    checked when it's submitted, so only transactions that would process cleanly are kept:
+
+        - the signature verifies against the sender's key
+        - every input is an output in the UTXO set
+        - no input is spent by another pending transaction, or twice by this one
+        - the value sent is positive, and the inputs add up to at least NoobChain.minimumTransaction and to at
+          least the value sent
+
+    Nothing in the chain's state changes on submission, the transaction is only processed once it's put in a block.
+
+    DOUBLE SPENDS:
+    Every output spent by a pending transaction is claimed in 'claims', a map from output id to the transaction that
+    spends it. A transaction claims its inputs one by one with putIfAbsent; if an input is already claimed it hands
+    back the ones it took and is rejected. So two transactions racing for the same output can never both get in, and
+    there is no global lock to serialise submitters on.
+
+    The signature check is by far the most expensive step and takes no lock at all, so submitting from several
+    threads, or through submitAll(), spreads the work over the cores. The inputs are read from the UTXO set, which
+    only locks the stripes they live in.
+
+    Every submission is counted under its TransactionStatus, as mempool.<status> in NoobChain.metrics.
+
+    BLOCK TEMPLATES:
+    createBlockTemplate() takes the oldest pending transactions, processes them into a new block in one batch through
+    Block.addTransactions() and releases their claims. The block only needs mining. A transaction whose inputs were
+    spent some other way while it was pending is dropped there.
+*/
+public class Mempool {
+
+    private static final Metrics.Counter[] statusCounters = NoobChain.metrics.statusCounters("mempool");
+
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>(); // in order of arrival
+    private final ConcurrentHashMap<String, Entry> claims = new ConcurrentHashMap<>(); // spent output id -> spender
+    private final AtomicInteger size = new AtomicInteger();
+
+    public Mempool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // Checks and queues the transaction, see check() and admit(), and counts the outcome by status.
+    public TransactionStatus submit(Transaction transaction) {
+        TransactionStatus status = check(transaction);
+        statusCounters[status.ordinal()].increment();
+
+        return status;
+    }
+
+    private TransactionStatus check(Transaction transaction) {
+        /* FUNCTION BREAKDOWN:
+            Transactions that can't be valid whatever the pool holds are turned away first. Then a slot is reserved,
+            so the pool can't grow past its capacity however many threads submit at once, and given back if admit()
+            doesn't accept the transaction.
+         */
+        if(transaction == null) return TransactionStatus.NULL;
+        if(transaction.inputs == null || transaction.inputs.isEmpty()) return TransactionStatus.MISSING_INPUTS;
+        if(transaction.value <= 0) return TransactionStatus.INVALID_VALUE;
+
+        if(size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return TransactionStatus.POOL_FULL;
+        }
+
+        TransactionStatus status = admit(transaction);
+        if(!status.isAccepted()) size.decrementAndGet();
+
+        return status;
+    }
+
+    // Submits every transaction, spread over the common pool. The statuses are in the same order as the transactions.
+    public List<TransactionStatus> submitAll(@NotNull Collection<Transaction> transactions) {
+        Transaction[] batch = transactions.toArray(new Transaction[0]);
+        TransactionStatus[] statuses = new TransactionStatus[batch.length];
+
+        IntStream.range(0, batch.length).parallel().forEach(i -> statuses[i] = submit(batch[i]));
+
+        return Arrays.asList(statuses);
+    }
+
+    private TransactionStatus admit(Transaction transaction) {
+        /* FUNCTION BREAKDOWN:
+            The cheap checks on the inputs run before the signature check, so a flood of transactions spending outputs
+            that are already claimed or aren't unspent is turned away without doing any ECDSA work. Claims are taken
+            last, right before the transaction is queued; losing one to another thread gives back those already taken.
+         */
+        Entry entry = new Entry(transaction);
+
+        for(String outputId : entry.outputIds) {
+            Entry claimant = claims.get(outputId);
+            if(claimant != null) return claimant.transaction == transaction ? TransactionStatus.DUPLICATE : TransactionStatus.DOUBLE_SPEND;
+        }
+
+        long inputsValue = 0;
+        for(String outputId : entry.outputIds) {
+            TransactionOutput output = NoobChain.UTXOs.get(outputId);
+            if(output == null) return TransactionStatus.MISSING_INPUTS;
+            inputsValue = Math.addExact(inputsValue, output.value);
+        }
+
+        if(inputsValue < NoobChain.minimumTransaction) return TransactionStatus.INPUTS_TOO_SMALL;
+        if(inputsValue < transaction.value) return TransactionStatus.INSUFFICIENT_FUNDS;
+
+        if(!transaction.verifySignature()) return TransactionStatus.INVALID_SIGNATURE;
+
+        for(int i = 0; i < entry.outputIds.length; i++) {
+            Entry claimant = claims.putIfAbsent(entry.outputIds[i], entry);
+
+            if(claimant != null) {
+                release(entry, i);
+                return claimant != entry && claimant.transaction == transaction ? TransactionStatus.DUPLICATE : TransactionStatus.DOUBLE_SPEND;
+            }
+        }
+
+        pending.add(entry);
+        return TransactionStatus.ACCEPTED;
+    }
+
+    // Builds a block on 'previousHash' from up to 'maxTransactions' of the oldest pending transactions.
+    public Block createBlockTemplate(String previousHash, int maxTransactions) {
+        Block block = new Block(previousHash);
+        List<Entry> taken = new ArrayList<>();
+        List<Transaction> batch = new ArrayList<>();
+
+        Entry entry;
+        while(batch.size() < maxTransactions && (entry = pending.poll()) != null) {
+            taken.add(entry);
+            batch.add(entry.transaction);
+        }
+
+        block.addTransactions(batch); // still rejected there if they're spent meanwhile
+
+        for(Entry done : taken) {
+            release(done, done.outputIds.length);
+            size.decrementAndGet();
+        }
+
+        return block;
+    }
+
+    // Whether the output is spent by a pending transaction.
+    public boolean isClaimed(String outputId) {
+        return claims.containsKey(outputId);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Gives up the first 'count' claims of the entry.
+    private void release(Entry entry, int count) {
+        for(int i = 0; i < count; i++) {
+            claims.remove(entry.outputIds[i], entry);
+        }
+    }
+
+    private static class Entry {
+
+        final Transaction transaction;
+        final String[] outputIds; // the outputs its inputs spend
+
+        Entry(Transaction transaction) {
+            this.transaction = transaction;
+
+            ArrayList<TransactionInput> inputs = transaction.inputs;
+            outputIds = new String[inputs.size()];
+            for(int i = 0; i < outputIds.length; i++) {
+                outputIds[i] = inputs.get(i).transactionOutputId;
+            }
+        }
+    }
+}
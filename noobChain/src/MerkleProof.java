@@ -0,0 +1,59 @@
+import org.jetbrains.annotations.NotNull;
+
+/* MERKLE PROOF:
+    Proves that a transaction is part of a block without the block's other transactions: the transaction's position
+    and the sibling of every node on the way from its leaf up to the root. Hashing the transaction id with those
+    siblings, left or right as the position says, has to give the block's Merkle root. A block of n transactions needs
+    log2(n) siblings, so checking one transaction costs log2(n) hashes instead of rebuilding the whole tree.
+
+    The bottom sibling is the neighbouring transaction id, since leaves are hashed as text. The siblings above it are
+    kept as raw 32 byte digests, one after the other in 'branch'.
+
+    The tree drops the last node of every level with an odd number of nodes (see MerkleTree), so in a block of n
+    transactions only the first 2^floor(log2 n) end up under the root. The others aren't committed to by the block
+    header at all, and there's nothing to prove for them: MerkleTree.getProof() returns null for those.
+*/
+public class MerkleProof {
+
+    public final String transactionId;
+    public final int index; // position of the transaction in the block
+    private final String leafSibling; // null when the transaction is the block's only one
+    private final byte[] branch; // 32 bytes per level above the leaves, bottom up
+
+    MerkleProof(String transactionId, int index, String leafSibling, byte[] branch) {
+        this.transactionId = transactionId;
+        this.index = index;
+        this.leafSibling = leafSibling;
+        this.branch = branch;
+    }
+
+    // Number of hashes between the transaction and the root.
+    public int getDepth() {
+        return leafSibling == null ? 0 : 1 + branch.length / 32;
+    }
+
+    // The Merkle root this proof leads to.
+    public String computeRoot() {
+        /* FUNCTION BREAKDOWN:
+            Bit k of the index says whether the node on level k is a left (0) or a right (1) child. The leaf is hashed
+            with its sibling leaf first, then the running digest with each sibling digest in turn.
+         */
+        if(leafSibling == null) return transactionId;
+
+        byte[] node = new byte[32];
+        if((index & 1) == 0) MerkleTree.hashLeaves(transactionId, leafSibling, node);
+        else MerkleTree.hashLeaves(leafSibling, transactionId, node);
+
+        for(int level = 1; level < getDepth(); level++) {
+            if(((index >> level) & 1) == 0) MerkleTree.hashDigests(node, 0, branch, (level - 1) * 32, node);
+            else MerkleTree.hashDigests(branch, (level - 1) * 32, node, 0, node);
+        }
+
+        return MerkleTree.toHex(node);
+    }
+
+    // Whether the transaction is in the block with this Merkle root.
+    public boolean verify(@NotNull String merkleRoot) {
+        return merkleRoot.equals(computeRoot());
+    }
+}
@@ -0,0 +1,238 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/* MERKLE TREE:
+    The Merkle tree of a block's transactions, kept with all of its levels so appending a transaction only hashes the
+    nodes above it instead of rebuilding the tree.
+
+    It produces exactly the root StringUtil.getMerkleRoot() always has. That algorithm hashes the hex text of two
+    neighbours together, sha256(left + right), and drops the last node of a level when the level has an odd number of
+    nodes. So level k holds n >> k nodes, node i of level k covers leaves i * 2^k up to (i + 1) * 2^k, and the root is
+    the single node of level floor(log2 n). A block with one transaction has that transaction's id as root, and an
+    empty block has "".
+
+    The leaves keep the transaction ids as text, since that's what gets hashed at the bottom. Every level above holds
+    raw 32 byte digests in one flat byte array, and a digest is only turned into hex (in a reused scratch buffer, not a
+    String) when it's hashed into its parent. Appending leaf n:
+
+        - adds it to level 0
+        - if n is odd, hashes leaves n-1 and n into a new node of level 1
+        - if that node has an odd index, hashes it with its left neighbour into level 2, and so on
+
+    which is at most log2(n) hashes, and on average fewer than one.
+
+    Building a tree over a whole list at once hashes each level in parallel on the common pool when the level is big
+    enough to be worth splitting.
+*/
+public class MerkleTree {
+
+    private static final int PARALLEL_THRESHOLD = 4096; // nodes in a level before it's hashed in parallel
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // One digest and scratch buffer per thread, for the parallel build.
+    private static final ThreadLocal<Hasher> HASHERS = ThreadLocal.withInitial(Hasher::new);
+
+    private final ArrayList<String> leaves = new ArrayList<>();
+    private final ArrayList<byte[]> leafBytes = new ArrayList<>(); // UTF-8 of each leaf, what actually gets hashed
+    private byte[][] levels = new byte[1][]; // levels[k] for k >= 1 holds (size >> k) digests of 32 bytes, levels[0] is unused
+    private int size;
+
+    public MerkleTree() {
+    }
+
+    // Builds the tree over 'leaves' in one go, hashing large levels in parallel.
+    public static MerkleTree build(@NotNull List<String> leaves) {
+        MerkleTree tree = new MerkleTree();
+
+        tree.size = leaves.size();
+        tree.leaves.addAll(leaves);
+        tree.leafBytes.ensureCapacity(tree.size);
+        for(String leaf : leaves) {
+            tree.leafBytes.add(toBytes(leaf));
+        }
+
+        int height = height(tree.size);
+        tree.levels = new byte[height + 1][];
+
+        for(int level = 1; level <= height; level++) {
+            int count = tree.size >> level;
+            tree.levels[level] = new byte[Math.max(count, 16) * 32];
+
+            final int k = level;
+            IntStream nodes = IntStream.range(0, count);
+            if(count >= PARALLEL_THRESHOLD) nodes = nodes.parallel();
+            nodes.forEach(i -> tree.hashNode(HASHERS.get(), k, i));
+        }
+
+        return tree;
+    }
+
+    // Appends a leaf and updates the nodes above it.
+    public void append(String leaf) {
+        leaves.add(leaf);
+        leafBytes.add(toBytes(leaf));
+        size++;
+
+        Hasher hasher = HASHERS.get();
+        int index = size - 1;
+
+        // The leaf completes a pair on every level where its ancestor is a right child.
+        for(int level = 1; (index & 1) == 1; level++) {
+            index >>= 1;
+            ensureLevel(level, index + 1);
+            hashNode(hasher, level, index);
+        }
+    }
+
+    // Drops every leaf from 'newSize' on, along with the nodes that covered them.
+    public void truncate(int newSize) {
+        if(newSize < 0 || newSize > size) throw new IndexOutOfBoundsException("Can't truncate " + size + " leaves to " + newSize);
+
+        leaves.subList(newSize, size).clear();
+        leafBytes.subList(newSize, size).clear();
+        size = newSize; // a level's node count follows from size, so the digests left behind are simply out of range
+    }
+
+    public String getRoot() {
+        if(size == 0) return "";
+        if(size == 1) return leaves.get(0);
+
+        return toHex(levels[height(size)], 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getLeaf(int index) {
+        return leaves.get(index);
+    }
+
+    // Index of the top level, the one holding the root.
+    public int getHeight() {
+        return height(size);
+    }
+
+    // Hex form of node 'index' of 'level', the leaf id itself on level 0.
+    public String getNode(int level, int index) {
+        if(index < 0 || index >= size >> level) throw new IndexOutOfBoundsException("No node " + index + " on level " + level);
+
+        return level == 0 ? leaves.get(index) : toHex(levels[level], index * 32);
+    }
+
+    // Inclusion proof for leaf 'index', or null if the root doesn't cover that leaf (see MerkleProof).
+    public MerkleProof getProof(int index) {
+        int height = height(size);
+
+        if(index < 0 || index >= size || index >= 1 << height) return null;
+        if(height == 0) return new MerkleProof(leaves.get(index), index, null, new byte[0]);
+
+        // Siblings above the leaves are copied as raw digests, bottom up.
+        byte[] branch = new byte[(height - 1) * 32];
+        for(int level = 1; level < height; level++) {
+            System.arraycopy(levels[level], ((index >> level) ^ 1) * 32, branch, (level - 1) * 32, 32);
+        }
+
+        return new MerkleProof(leaves.get(index), index, leaves.get(index ^ 1), branch);
+    }
+
+    // sha256(left + right) of two leaves into out[0..31], the bottom step of the tree.
+    static void hashLeaves(String left, String right, byte[] out) {
+        HASHERS.get().hashText(toBytes(left), toBytes(right), out, 0);
+    }
+
+    // sha256(hex(left) + hex(right)) of two digests into out[0..31], every step above the bottom one.
+    static void hashDigests(byte[] left, int leftOffset, byte[] right, int rightOffset, byte[] out) {
+        byte[] pair = new byte[64];
+        System.arraycopy(left, leftOffset, pair, 0, 32);
+        System.arraycopy(right, rightOffset, pair, 32, 32);
+        HASHERS.get().hashDigests(pair, 0, out, 0);
+    }
+
+    static String toHex(byte[] digest) {
+        return toHex(digest, 0);
+    }
+
+    private void hashNode(Hasher hasher, int level, int index) {
+        byte[] out = levels[level];
+
+        if(level == 1) {
+            hasher.hashText(leafBytes.get(2 * index), leafBytes.get(2 * index + 1), out, index * 32);
+        } else {
+            hasher.hashDigests(levels[level - 1], 2 * index * 32, out, index * 32);
+        }
+    }
+
+    private void ensureLevel(int level, int count) {
+        if(level >= levels.length) levels = Arrays.copyOf(levels, level + 1);
+
+        if(levels[level] == null) levels[level] = new byte[16 * 32];
+        else if(levels[level].length < count * 32) levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+    }
+
+    private static int height(int size) {
+        return size <= 1 ? 0 : 31 - Integer.numberOfLeadingZeros(size);
+    }
+
+    private static byte[] toBytes(String leaf) {
+        return leaf == null ? "null".getBytes(StandardCharsets.UTF_8) : leaf.getBytes(StandardCharsets.UTF_8); // string concatenation prints null as "null"
+    }
+
+    private static String toHex(byte[] digests, int offset) {
+        byte[] hex = new byte[64];
+        Hasher.hex(digests, offset, hex, 0);
+        return new String(hex, StandardCharsets.US_ASCII);
+    }
+
+    private static class Hasher {
+
+        private final MessageDigest sha256;
+        private final byte[] scratch = new byte[128];
+
+        Hasher() {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        // sha256(left + right) of two leaves.
+        void hashText(byte[] left, byte[] right, byte[] out, int offset) {
+            sha256.update(left);
+            sha256.update(right);
+            finish(out, offset);
+        }
+
+        // sha256(hex(left) + hex(right)) of two neighbouring digests starting at 'from'.
+        void hashDigests(byte[] level, int from, byte[] out, int offset) {
+            hex(level, from, scratch, 0);
+            hex(level, from + 32, scratch, 64);
+            sha256.update(scratch, 0, 128);
+            finish(out, offset);
+        }
+
+        private void finish(byte[] out, int offset) {
+            try {
+                sha256.digest(out, offset, 32);
+            } catch (DigestException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        static void hex(byte[] digest, int from, byte[] out, int offset) {
+            for(int i = 0; i < 32; i++) {
+                out[offset + 2 * i] = HEX[(digest[from + i] >>> 4) & 0xf];
+                out[offset + 2 * i + 1] = HEX[digest[from + i] & 0xf];
+            }
+        }
+    }
+}
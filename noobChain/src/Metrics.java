@@ -0,0 +1,292 @@
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/* METRICS:
+    Counters, gauges and latency histograms for the node, by name, readable over JMX. Register the registry with
+    registerMBean() and every metric shows up as an attribute of one MBean (noobchain:type=Metrics by default) in
+    jconsole, VisualVM or any other JMX client.
+
+        Counter     a LongAdder. Threads incrementing the same counter each add to a cell of their own, so counting
+                    on a hot path costs about as much as an unshared increment.
+        Gauge       a value read when it's asked for, such as the chain height or the size of the UTXO set.
+        Histogram   a distribution, usually of latencies in nanoseconds. Values are counted in log-linear buckets:
+                    every power of two is split into 8 buckets, so a percentile is off by at most 12.5% whatever the
+                    range, and recording a value is one atomic increment into a fixed array. Over JMX a histogram
+                    shows up as <name>.count, .mean, .p50, .p90, .p99 and .max.
+
+    Metrics are created on first use and live as long as the registry. Look one up once and keep it in a field on
+    hot paths; the lookup itself is a map access.
+*/
+public class Metrics implements DynamicMBean {
+
+    public static final String DEFAULT_NAME = "noobchain:type=Metrics";
+
+    private final Map<String, Object> metrics = new ConcurrentSkipListMap<>(); // sorted, so JMX lists them in order
+
+    public Counter counter(@NotNull String name) {
+        return get(name, Counter.class, Counter::new);
+    }
+
+    public Histogram histogram(@NotNull String name) {
+        return get(name, Histogram.class, Histogram::new);
+    }
+
+    // Registers a gauge, replacing any earlier one of the same name.
+    public void gauge(@NotNull String name, @NotNull LongSupplier value) {
+        metrics.put(name, new Gauge(value));
+    }
+
+    // One counter per TransactionStatus, named <prefix>.<status>, indexed by ordinal.
+    public Counter[] statusCounters(@NotNull String prefix) {
+        TransactionStatus[] statuses = TransactionStatus.values();
+        Counter[] counters = new Counter[statuses.length];
+
+        for(TransactionStatus status : statuses) {
+            counters[status.ordinal()] = counter(prefix + "." + status.name().toLowerCase());
+        }
+
+        return counters;
+    }
+
+    public void registerMBean() throws JMException {
+        registerMBean(DEFAULT_NAME);
+    }
+
+    public void registerMBean(@NotNull String objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(objectName));
+    }
+
+    // Every value as JMX shows it, by attribute name.
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+
+        for(Map.Entry<String, Object> metric : metrics.entrySet()) {
+            String name = metric.getKey();
+            Object value = metric.getValue();
+
+            if(value instanceof Counter) {
+                values.put(name, ((Counter) value).get());
+            } else if(value instanceof Gauge) {
+                values.put(name, ((Gauge) value).value.getAsLong());
+            } else {
+                Histogram histogram = (Histogram) value;
+                values.put(name + ".count", histogram.getCount());
+                values.put(name + ".mean", histogram.getMean());
+                values.put(name + ".p50", histogram.getPercentile(50));
+                values.put(name + ".p90", histogram.getPercentile(90));
+                values.put(name + ".p99", histogram.getPercentile(99));
+                values.put(name + ".max", histogram.getMax());
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = read(attribute);
+        if(value == null) throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+
+        for(String attribute : attributes) {
+            Object value = read(attribute);
+            if(value != null) list.add(new Attribute(attribute, value));
+        }
+
+        return list;
+    }
+
+    // One attribute as snapshot() has it, reading only the metric it names. Null if there's no such attribute.
+    private Object read(String attribute) {
+        Object metric = metrics.get(attribute);
+        if(metric instanceof Counter) return ((Counter) metric).get();
+        if(metric instanceof Gauge) return ((Gauge) metric).value.getAsLong();
+
+        // <histogram>.count, .mean, .pN or .max
+        int dot = attribute.lastIndexOf('.');
+        if(dot < 0) return null;
+
+        metric = metrics.get(attribute.substring(0, dot));
+        if(!(metric instanceof Histogram)) return null;
+
+        Histogram histogram = (Histogram) metric;
+        String suffix = attribute.substring(dot + 1);
+        switch (suffix) {
+            case "count":
+                return histogram.getCount();
+            case "mean":
+                return histogram.getMean();
+            case "max":
+                return histogram.getMax();
+            case "p50":
+            case "p90":
+            case "p99":
+                return histogram.getPercentile(Integer.parseInt(suffix.substring(1)));
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList(); // read-only, nothing was set
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+
+        for(Map.Entry<String, Object> value : snapshot().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(), value.getKey(), true, false, false));
+        }
+
+        return new MBeanInfo(getClass().getName(), "NoobChain node metrics", attributes.toArray(new MBeanAttributeInfo[0]),
+                null, new MBeanOperationInfo[0], null);
+    }
+
+    private <T> T get(String name, Class<T> type, Supplier<T> create) {
+        Object metric = metrics.get(name);
+        if(metric == null) metric = metrics.computeIfAbsent(name, n -> create.get());
+
+        if(!type.isInstance(metric)) throw new IllegalArgumentException(name + " is not a " + type.getSimpleName());
+        return type.cast(metric);
+    }
+
+    public static class Counter {
+
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    private static class Gauge {
+
+        final LongSupplier value;
+
+        Gauge(LongSupplier value) {
+            this.value = value;
+        }
+    }
+
+    public static class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 3; // 8 buckets per power of two
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int LINEAR = SUB_BUCKETS * 2; // values below this get a bucket each
+        private static final int BUCKETS = LINEAR + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if(value < 0) value = 0;
+
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            if(value > max.get()) max.accumulateAndGet(value, Math::max);
+        }
+
+        // Records the time since 'startNanos', a System.nanoTime() taken before the work.
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) sum.sum() / count;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        // The upper end of the bucket holding the given percentile, never more than the largest value recorded.
+        public long getPercentile(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for(int b = 0; b < BUCKETS; b++) {
+                counts[b] = buckets.get(b);
+                total += counts[b];
+            }
+            if(total == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for(int b = 0; b < BUCKETS; b++) {
+                seen += counts[b];
+                if(seen >= rank) return Math.min(upperBound(b), getMax());
+            }
+            return getMax();
+        }
+
+        static int bucket(long value) {
+            if(value < LINEAR) return (int) value;
+
+            int exponent = 63 - Long.numberOfLeadingZeros(value); // at least SUB_BUCKET_BITS + 1
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+        }
+
+        static long upperBound(int bucket) {
+            if(bucket < LINEAR) return bucket;
+
+            int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+            int subBucket = (bucket - LINEAR) % SUB_BUCKETS;
+            long lower = (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+            return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/* PARALLEL MINING:
+    Block.mineBlock() walks the nonce space on a single thread, so while a block is being mined one core is pegged and
+    the rest of the machine sits idle. The Miner splits the nonce space into chunks of CHUNK_SIZE nonces and deals
+    them out to a fixed number of worker threads: worker w takes chunks w, w + workers, w + 2 * workers, ... so no two
+    workers ever hash the same candidate. Within a chunk each worker uses a NonceSearcher, which can hash several
+    nonces at once in SIMD lanes when the Vector API is available.
+
+    The nonce is only a 32-bit int, which at high difficulty can run out before a valid hash is found. When a worker
+    has walked its whole share of the 2^32 nonces it rolls the timestamp forward by one millisecond and starts over,
+    which gives every worker a fresh nonce space. As soon as one worker finds a valid hash it publishes the result and
+    every other worker stops before its next chunk.
+*/
+public class Miner {
+
+    private static final long NONCE_SPACE = 1L << 32; // every value a 32-bit nonce can take
+    private static final int CHUNK_SIZE = 1024; // nonces a worker tries between checking for a winner
+
+    // Mining metrics, Block.mineBlock() records into them too. See NoobChain.metrics.
+    private static final Metrics.Counter blocksMined = NoobChain.metrics.counter("mining.blocks");
+    private static final Metrics.Counter hashesMined = NoobChain.metrics.counter("mining.hashes");
+    private static final Metrics.Counter miningNanos = NoobChain.metrics.counter("mining.nanos");
+    private static final Metrics.Histogram blockNanos = NoobChain.metrics.histogram("mining.blockNanos");
+
+    private final int workers;
+    private final int lanes;
+    private final ExecutorService pool;
+
+    public Miner(int workers) {
+        this(workers, 1);
+    }
+
+    // 'lanes' is how many nonces each worker should hash at once, see NonceSearcher.create().
+    public Miner(int workers, int lanes) {
+        if(workers < 1) throw new IllegalArgumentException("Miner needs at least one worker: " + workers);
+
+        this.workers = workers;
+        this.lanes = NonceSearcher.create(lanes).getLanes(); // what this JVM can actually do
+        this.pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "noobchain-miner");
+            thread.setDaemon(true); // never keep the JVM alive just because a miner exists
+            return thread;
+        });
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    // Mines the block on all workers and fills in its nonce, timestamp and hash.
+    public Result mine(@NotNull Block block, int difficulty) {
+        /* FUNCTION BREAKDOWN:
+            The Merkle root is read once up front, exactly like Block.mineBlock() does, so every worker hashes the
+            same header apart from the nonce and timestamp.
+
+            Each worker then runs search() on its own slice of the nonce space. The first worker to find a hash that
+            starts with the difficulty target stores its candidate in the shared 'winner' reference; every other
+            worker sees the reference is set and returns.
+
+            Once all workers are done the winning nonce, timestamp and hash are copied onto the block, and the number
+            of hashes tried across all workers is reported together with the aggregate hash rate.
+         */
+        block.merkleRoot = block.getMerkleRoot();
+
+        int targetBits = HeaderHasher.getTargetBits(difficulty);
+        AtomicReference<Result> winner = new AtomicReference<>();
+        LongAdder hashesTried = new LongAdder();
+
+        long start = System.nanoTime();
+
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for(int w = 0; w < workers; w++) {
+            final int worker = w;
+            futures.add(pool.submit(() -> search(block, targetBits, worker, winner, hashesTried)));
+        }
+
+        try {
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            winner.compareAndSet(null, new Result(0, 0, null)); // make sure the remaining workers stop
+            throw new RuntimeException(e);
+        }
+
+        Result result = winner.get();
+        result.hashesTried = hashesTried.sum();
+        result.elapsedNanos = System.nanoTime() - start;
+        record(result.hashesTried, result.elapsedNanos);
+
+        block.timeStamp = result.timeStamp;
+        block.nonce = result.nonce;
+        block.hash = result.hash;
+
+        NoobChain.log.blockMined("Block Mined!!! : " + block.hash + " (" + result.hashesTried + " hashes, "
+                + String.format("%.1f", result.getHashRate()) + " H/s on " + workers + " workers, " + lanes + " lanes)");
+
+        return result;
+    }
+
+    // Counts a mined block: the nonces tried for it and how long it took.
+    static void record(long hashesTried, long elapsedNanos) {
+        blocksMined.increment();
+        hashesMined.add(hashesTried);
+        miningNanos.add(elapsedNanos);
+        blockNanos.record(elapsedNanos);
+    }
+
+    // The hash rate over every block mined so far, in hashes per second.
+    static long getHashRate() {
+        long nanos = miningNanos.get();
+        return nanos == 0 ? 0 : (long) (hashesMined.get() * 1_000_000_000.0 / nanos);
+    }
+
+    private void search(Block block, int targetBits, int worker, AtomicReference<Result> winner, LongAdder hashesTried) {
+        HeaderHasher header = new HeaderHasher(block);
+        NonceSearcher searcher = NonceSearcher.create(lanes);
+        long tried = 0;
+
+        try {
+            // Each round covers this worker's share of the 32-bit nonce space, then the timestamp is rolled.
+            for(long round = 0; ; round++) {
+                long timeStamp = block.timeStamp + round;
+                header.setTimeStamp(timeStamp);
+
+                for(long chunk = (long) worker * CHUNK_SIZE; chunk < NONCE_SPACE; chunk += (long) workers * CHUNK_SIZE) {
+
+                    if(winner.get() != null) return;
+
+                    int firstNonce = (int) chunk; // walks 0..MAX_VALUE, then wraps through the negative values
+                    long found = searcher.search(header, firstNonce, CHUNK_SIZE, targetBits);
+
+                    if(found == NonceSearcher.NOT_FOUND) {
+                        tried += CHUNK_SIZE;
+                        continue;
+                    }
+
+                    tried += (int) found - firstNonce + 1;
+                    winner.compareAndSet(null, new Result((int) found, timeStamp, header.getHash()));
+                    return;
+                }
+            }
+        } finally {
+            hashesTried.add(tried);
+        }
+    }
+
+    // Stops the worker threads. Blocks can no longer be mined with this miner afterwards.
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public static class Result {
+
+        public final int nonce;
+        public final long timeStamp;
+        public final String hash;
+        public long hashesTried; // across all workers, including the ones that lost the race
+        public long elapsedNanos;
+
+        Result(int nonce, long timeStamp, String hash) {
+            this.nonce = nonce;
+            this.timeStamp = timeStamp;
+            this.hash = hash;
+        }
+
+        // Aggregate hashes per second over every worker.
+        public double getHashRate() {
+            return elapsedNanos == 0 ? 0 : hashesTried * 1_000_000_000.0 / elapsedNanos;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/* NONCE SEARCH ENGINES:
+    A NonceSearcher tries a contiguous run of nonces against a HeaderHasher and returns the first one whose hash meets
+    the target. There are two engines:
+
+        ScalarNonceSearcher   hashes one nonce at a time, exactly like Block.mineBlock().
+        VectorNonceSearcher   hashes 4, 8 or 16 nonces at once in SIMD lanes using the jdk.incubator.vector API.
+
+    The Vector API is an incubator module, so it is only there when the JVM is started with
+    --add-modules jdk.incubator.vector. The vector engine is therefore loaded by name, and create() quietly falls back
+    to the scalar engine whenever the module (or the requested lane count) isn't available.
+
+    Both engines search nonces in ascending order and return the lowest matching nonce, so they always agree with
+    each other and with Block.calculateHash().
+*/
+public interface NonceSearcher {
+
+    long NOT_FOUND = Long.MIN_VALUE;
+
+    // Tries nonces firstNonce, firstNonce + 1, ... (count of them, wrapping past Integer.MAX_VALUE) and returns the
+    // first one that meets the target, or NOT_FOUND. On success the header holds the digest of the returned nonce.
+    long search(HeaderHasher header, int firstNonce, int count, int targetBits);
+
+    // How many nonces this engine hashes at once, 1 for the scalar engine.
+    int getLanes();
+
+    // Returns an engine hashing 'lanes' nonces at once, or the scalar engine if that isn't possible here.
+    static NonceSearcher create(int lanes) {
+        if(lanes <= 1 || !isVectorApiAvailable()) return new ScalarNonceSearcher();
+
+        try {
+            return (NonceSearcher) Class.forName("VectorNonceSearcher")
+                    .getDeclaredConstructor(int.class)
+                    .newInstance(lanes);
+        } catch (ReflectiveOperationException | LinkageError | IllegalArgumentException e) {
+            return new ScalarNonceSearcher();
+        }
+    }
+
+    // Lane count matching the widest vector registers of this machine, or 1 without the Vector API.
+    static int getPreferredLanes() {
+        if(!isVectorApiAvailable()) return 1;
+
+        try {
+            return (int) Class.forName("VectorNonceSearcher").getDeclaredMethod("getPreferredLanes").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return 1;
+        }
+    }
+
+    static boolean isVectorApiAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+}
@@ -1,31 +1,64 @@
 import org.jetbrains.annotations.NotNull;
 
+import javax.management.JMException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.Security;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
 public class NoobChain {
 
+    // Counters, gauges and latency histograms for the whole node, see Metrics. Created first: the classes below keep
+    // handles to their metrics in static fields.
+    public static final Metrics metrics = new Metrics();
+    // Where the chain reports what it's doing, written to the console by a background thread, see EventLog.
+    public static final EventLog log = new EventLog(8192);
+
     // To store chain of blocks:
-    public static ArrayList<Block> blockchain = new ArrayList<>();
+    public static StoredChain blockchain = new StoredChain(); // in memory, or read from blockStore after restore()
 
     /*  WHAT ARE UTXO'S ?
     --> In the context of blockchain technology, UTXOs (Unspent Transaction Outputs) are the unspent transaction
         outputs that are available for use in new transactions. Each UTXO represents a certain amount of cryptocurrency
         that has been transferred to an address, but has not yet been spent or transferred elsewhere.
 
-        The UTXOs HashMap is typically used to keep track of the unspent transaction outputs in a blockchain system.
-        Each entry in the HashMap represents a UTXO, where the key is the unique identifier of the transaction output,
-        and the value is the transaction output itself.
+        The UTXOs set is typically used to keep track of the unspent transaction outputs in a blockchain system.
+        Each entry in the set represents a UTXO, where the key is the unique identifier of the transaction output,
+        and the value is the transaction output itself. The set also indexes the outputs by owner, so a wallet's
+        balance can be read without scanning every UTXO.
      */
-    public static HashMap<String,TransactionOutput> UTXOs = new HashMap<>();
+    public static UTXOSet UTXOs = new UTXOSet();
+
+    // Every block by hash and the main chain by height, side branches included. Follows 'blockchain', see BlockIndex.
+    public static BlockIndex blockIndex = new BlockIndex(blockchain, UTXOs);
 
     public static int difficulty = 6;
-    public static float minimumTransaction = 0.1f;
+    public static long minimumTransaction = Amount.COIN / 10; // 0.1 coins, in base units
+    // Mines blocks on every core, in SIMD lanes when the JVM runs with --add-modules jdk.incubator.vector.
+    public static Miner miner = new Miner(Runtime.getRuntime().availableProcessors(), NonceSearcher.getPreferredLanes());
+    public static ChainValidator validator = new ChainValidator(ForkJoinPool.commonPool()); // checks blocks on every core
+    public static BlockStore blockStore; // when set, every added block is also written to disk
+    public static Path snapshotDirectory; // when set, a UTXO snapshot is written there every snapshotInterval blocks
+    public static int snapshotInterval = 1000;
+    public static SignatureCache signatureCache = new SignatureCache(100_000); // signatures that verified before
     public static Wallet walletA;
     public static Wallet walletB;
     public static Transaction genesisTransaction;
 
+    private static final Metrics.Histogram validationNanos = metrics.histogram("validation.nanos");
+    private static final Metrics.Counter validationFailures = metrics.counter("validation.failures");
+
+    static {
+        metrics.gauge("chain.height", () -> blockchain.size() - 1);
+        metrics.gauge("utxo.size", () -> UTXOs.size());
+        metrics.gauge("mining.hashRate", Miner::getHashRate);
+        metrics.gauge("signatureCache.hits", () -> signatureCache.getHits());
+        metrics.gauge("signatureCache.misses", () -> signatureCache.getMisses());
+        metrics.gauge("log.dropped", log::getDropped);
+    }
+
 
     public static void main(String[] args) {
 
@@ -37,192 +70,174 @@ public class NoobChain {
         */
         Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
 
+        registerMetrics();
+
+        // With -Dnoobchain.blocks=<directory> a chain stored by an earlier run is loaded and checked instead of the demo.
+        if(openStorage()) {
+            isChainValid();
+            return;
+        }
+
         // Create wallets:
         walletA = new Wallet();
         walletB = new Wallet();
         Wallet coinbase = new Wallet();
 
         // Create genesis transaction, which sends 100 NoobCoin to walletA:
-        genesisTransaction = new Transaction(coinbase.publicKey, walletA.publicKey, 100f, null);
+        genesisTransaction = new Transaction(coinbase.address, walletA.address, Amount.coins(100), null);
         genesisTransaction.generateSignature(coinbase.privateKey);	 // Manually sign the genesis transaction
         genesisTransaction.transactionId = "0"; // Manually set the transaction id
         genesisTransaction.outputs.add(new TransactionOutput(genesisTransaction.reciepient, genesisTransaction.value, genesisTransaction.transactionId)); //manually add the Transactions Output
         UTXOs.put(genesisTransaction.outputs.get(0).id, genesisTransaction.outputs.get(0)); // it's important to store our first transaction in the UTXOs list.
 
-        System.out.println("\n\nCreating and Mining Genesis block... ");
+        log.info("\n\nCreating and Mining Genesis block... ");
         Block genesis = new Block("0");
         genesis.addTransaction(genesisTransaction);
         addBlock(genesis);
 
         // Testing by adding new blocks onto the blockchain and signing transactions:
         Block block1 = new Block(genesis.hash);
-        System.out.println("\nWalletA's balance is: " + walletA.getBalance());
-        System.out.println("\nWalletA is Attempting to send funds (40) to WalletB...");
-        block1.addTransaction(walletA.sendFunds(walletB.publicKey, 40f));
+        log.info("\nWalletA's balance is: " + Amount.format(walletA.getBalance()));
+        log.info("\nWalletA is Attempting to send funds (40) to WalletB...");
+        block1.addTransaction(walletA.sendFunds(walletB.address, Amount.coins(40)));
         addBlock(block1);
-        System.out.println("\nWalletA's balance is: " + walletA.getBalance());
-        System.out.println("WalletB's balance is: " + walletB.getBalance());
+        log.info("\nWalletA's balance is: " + Amount.format(walletA.getBalance()));
+        log.info("WalletB's balance is: " + Amount.format(walletB.getBalance()));
 
         Block block2 = new Block(block1.hash);
-        System.out.println("\nWalletA Attempting to send more funds (1000) than it has...");
-        block2.addTransaction(walletA.sendFunds(walletB.publicKey, 1000f));
+        log.info("\nWalletA Attempting to send more funds (1000) than it has...");
+        block2.addTransaction(walletA.sendFunds(walletB.address, Amount.coins(1000)));
         addBlock(block2);
-        System.out.println("\nWalletA's balance is: " + walletA.getBalance());
-        System.out.println("WalletB's balance is: " + walletB.getBalance());
+        log.info("\nWalletA's balance is: " + Amount.format(walletA.getBalance()));
+        log.info("WalletB's balance is: " + Amount.format(walletB.getBalance()));
 
         Block block3 = new Block(block2.hash);
-        System.out.println("\nWalletB is Attempting to send funds (20) to WalletA...");
-        block3.addTransaction(walletB.sendFunds( walletA.publicKey, 20));
-        System.out.println("\nWalletA's balance is: " + walletA.getBalance());
-        System.out.println("WalletB's balance is: " + walletB.getBalance());
+        log.info("\nWalletB is Attempting to send funds (20) to WalletA...");
+        block3.addTransaction(walletB.sendFunds( walletA.address, Amount.coins(20)));
+        log.info("\nWalletA's balance is: " + Amount.format(walletA.getBalance()));
+        log.info("WalletB's balance is: " + Amount.format(walletB.getBalance()));
 
         isChainValid();
 
     }
 
     public static @NotNull Boolean isChainValid() {
+        /* FUNCTION BREAKDOWN:
+            Checks every block's hash, link to the previous block and proof of work, every transaction's signature and
+            amounts, and replays every transaction against a temporary list of unspent outputs built up from the
+            genesis transaction. See ChainValidator for how the checks are spread over the cores, and for the
+            checkpoint that lets later calls check only the blocks added since the last successful one.
+         */
+        long start = System.nanoTime();
+        boolean valid = validator.validate(blockchain, difficulty, genesisTransaction);
+        validationNanos.recordSince(start);
+        if(!valid) validationFailures.increment();
+
+        return valid;
+    }
 
-        Block currentBlock;
-        Block previousBlock;
+    // Makes the metrics readable over JMX, as the noobchain:type=Metrics MBean.
+    public static void registerMetrics() {
+        try {
+            metrics.registerMBean();
+        } catch (JMException e) {
+            log.warn("#Metrics could not be registered over JMX: " + e);
+        }
+    }
 
-        String hashTarget = new String(new char[difficulty]).replace('\0', '0');
-        HashMap<String,TransactionOutput> tempUTXOs = new HashMap<>(); // A temporary working list of unspent transactions at a given block state.
+    public static void addBlock(@NotNull Block newBlock) {
+        miner.mine(newBlock, difficulty);
 
-        tempUTXOs.put(genesisTransaction.outputs.get(0).id, genesisTransaction.outputs.get(0));
+        if(blockStore != null) {
+            try {
+                blockStore.append(newBlock);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not store block " + newBlock.hash, e);
+            }
+        }
 
-        // Loop through blockchain to check hashes:
-        for(int i=1; i < blockchain.size(); i++) {
+        blockchain.add(newBlock);
 
-            currentBlock = blockchain.get(i);
-            previousBlock = blockchain.get(i-1);
-            // Compare registered hash and calculated hash:
-            if(!currentBlock.hash.equals(currentBlock.calculateHash()) ){
-                System.out.println("#Current Hashes not equal");
-                return false;
-            }
-            // Compare previous hash and registered previous hash
-            if(!previousBlock.hash.equals(currentBlock.previousHash) ) {
-                System.out.println("#Previous Hashes not equal");
-                return false;
-            }
-            // Check if hash is solved
-            if(!currentBlock.hash.substring(0, difficulty).equals(hashTarget)) {
-                System.out.println("#This block hasn't been mined");
-                return false;
+        int height = blockchain.size() - 1;
+        if(snapshotDirectory != null && height % snapshotInterval == 0) {
+            try {
+                UTXOSnapshot.write(snapshotDirectory, UTXOs, height, newBlock.hash);
+            } catch (IOException e) {
+                log.warn("#Could not write UTXO snapshot at height " + height + ": " + e);
             }
+        }
+    }
 
-            // Loop through blockchains transactions:
-            TransactionOutput tempOutput;
-            for(int t=0; t <currentBlock.transactions.size(); t++) {
-                Transaction currentTransaction = currentBlock.transactions.get(t);
-
-                // To check if the digital signature on a transaction is valid or not:
-                if(!currentTransaction.verifySignature()) {
-                    System.out.println("#Signature on Transaction(" + t + ") is Invalid");
-                    return false;
-                }
-
-                if(currentTransaction.getInputsValue() != currentTransaction.getOutputsValue()) {
-                     /*
-                        In a blockchain system, a transaction involves transferring a certain amount of cryptocurrency
-                        from one address to another. Each transaction has one or more inputs, which represent the unspent
-                        outputs of previous transactions that are being used as the source of funds for the current
-                        transaction, and one or more outputs, which represent the new amounts being transferred to the
-                        recipient addresses.
-
-                        The code block then checks whether these two values are equal using the != operator. If the values
-                        are not equal, it means that the transaction is attempting to spend more cryptocurrency than is
-                        available in the input addresses, which is not allowed in a blockchain system.
-                     */
-
-                    System.out.println("#Inputs are note equal to outputs on Transaction(" + t + ")");
-                    return false;
-                }
-
-                for(TransactionInput input: currentTransaction.inputs) {
-
-                    /*
-                        This code block is also part of a transaction verification process and checks whether the input
-                        transactions referenced by the current transaction are valid and exist in the UTXO set
-                        (i.e., the list of unspent transaction outputs).
-
-                        In a blockchain system, a transaction input references a previous transaction output that has
-                        not been spent yet. Each input has a unique transaction ID and output index that points to the
-                        corresponding transaction output in the UTXO set. When a new transaction is created, it must
-                        reference the correct transaction inputs and provide a valid signature to prove ownership of
-                        the input addresses.
-                     */
-                    tempOutput = tempUTXOs.get(input.transactionOutputId);
-
-                    if(tempOutput == null) {
-                        System.out.println("#Referenced input on Transaction(" + t + ") is Missing");
-                        return false;
-                    }
-
-                    if(input.UTXO.value != tempOutput.value) {
-                        System.out.println("#Referenced input Transaction(" + t + ") value is Invalid");
-                        return false;
-                    }
-
-                    tempUTXOs.remove(input.transactionOutputId);
-                }
-
-                for(TransactionOutput output: currentTransaction.outputs) {
-                    /*
-                        In a blockchain system, a transaction output represents the new amount of cryptocurrency being
-                        transferred to the recipient address(es). Each output has a unique ID that is calculated based
-                        on the transaction ID and output index, which helps to identify the output transaction in the
-                        UTXO set.
-
-                        This step ensures that the output transactions of the current transaction are available in the
-                        UTXO set for future transactions to reference as inputs. In other words, it updates the UTXO
-                        set with the new outputs created by the current transaction.
-                     */
-                    tempUTXOs.put(output.id, output);
-                }
-
-
-                /*
-                    This code block is also part of the transaction verification process, specifically for verifying
-                    that the transaction outputs are being sent to the correct recipients.
-
-                    In a blockchain system, a transaction output represents the new amount of cryptocurrency being
-                    transferred to the recipient address(es). Each output has a recipient field that contains the
-                    public key or address of the recipient to whom the output is being sent.
-
-                    The code block verifies that the recipient of the first output transaction in the currentTransaction
-                     object matches the intended recipient specified in the currentTransaction.recipient field.
-                     If they do not match, it prints an error message and returns false.
-
-                    It also verifies that the recipient of the second output transaction (which is typically used to
-                    send "change" back to the sender) in the currentTransaction object matches the sender's address
-                    specified in the currentTransaction.sender field. If they do not match, it prints an error message
-                    and returns false.
-
-                    These checks ensure that the transaction outputs are being sent to the correct recipients and that
-                    any change from the transaction is being returned to the sender's address. If these checks fail,
-                    the transaction verification process is halted, and the transaction is considered invalid.
-                 */
-                if( currentTransaction.outputs.get(0).reciepient != currentTransaction.reciepient) {
-                    System.out.println("#Transaction(" + t + ") output reciepient is not who it should be");
-                    return false;
-                }
-                if( currentTransaction.outputs.get(1).reciepient != currentTransaction.sender) {
-                    System.out.println("#Transaction(" + t + ") output 'change' is not sender.");
-                    return false;
-                }
+    // Adds a block mined somewhere else, on the main chain or a side branch, see BlockIndex.submit().
+    public static BlockIndex.Status submitBlock(@NotNull Block block) {
+        BlockIndex.Status status = blockIndex.submit(block, difficulty);
 
+        if(status == BlockIndex.Status.REORGANIZED) validator.invalidate(); // blocks it checked were replaced
+
+        if((status == BlockIndex.Status.CONNECTED || status == BlockIndex.Status.REORGANIZED) && blockStore != null) {
+            try {
+                storeMainChain();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not store block " + block.hash, e);
             }
+        }
+
+        return status;
+    }
+
+    // Brings blockStore in line with the main chain: the blocks above the last one both agree on are dropped from the
+    // store and the main chain's blocks from there on are appended. After a reorganization that rewrites the blocks of
+    // the old branch, otherwise it only appends the new tip.
+    private static void storeMainChain() throws IOException {
+        int fork = Math.min(blockchain.size(), blockStore.size()) - 1;
+        while(fork >= 0 && blockStore.getHeight(blockchain.get(fork).hash) != fork) fork--;
+
+        if(fork < blockStore.size() - 1) {
+            log.info("Rewriting the block store from height " + (fork + 1) + " to follow the main chain");
+            blockStore.truncate(fork);
+        }
 
+        for(int height = fork + 1; height < blockchain.size(); height++) {
+            blockStore.append(blockchain.get(height));
         }
+    }
 
-        // If all the condition satisfies, then the blockchain is obviously valid
-        System.out.println("Blockchain is valid");
-        return true;
+    public static boolean openStorage() {
+        /* FUNCTION BREAKDOWN:
+            Opens blockStore in the directory named by the noobchain.blocks system property and sets snapshotDirectory
+            from noobchain.snapshots, when they're set; without noobchain.blocks nothing is stored. A store that already
+            holds blocks is from an earlier run, and the chain is restored from it. Returns whether it was.
+         */
+        String blocks = System.getProperty("noobchain.blocks");
+        String snapshots = System.getProperty("noobchain.snapshots");
+
+        if(snapshots != null) snapshotDirectory = Paths.get(snapshots);
+        if(blocks == null) return false;
+
+        try {
+            blockStore = BlockStore.open(Paths.get(blocks));
+            if(blockStore.size() == 0) return false;
+
+            restore();
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the block store in " + blocks, e);
+        }
     }
 
-    public static void addBlock(@NotNull Block newBlock) {
-        newBlock.mineBlock(difficulty);
-        blockchain.add(newBlock);
+    // Reloads the chain from blockStore after a restart, the UTXOs from the newest snapshot in snapshotDirectory and the
+    // blocks after it. See UTXOSnapshot.restore(). The blocks up to the snapshot aren't read: they stay in the store,
+    // and the validator's checkpoint starts at the snapshot, so isChainValid() only checks the blocks after it.
+    public static void restore() throws IOException {
+        if(blockStore == null) throw new IllegalStateException("No block store to restore the chain from, open NoobChain.blockStore first");
+
+        UTXOSnapshot snapshot = UTXOSnapshot.restore(blockStore, snapshotDirectory, UTXOs, blockchain);
+        genesisTransaction = blockchain.isEmpty() ? null : blockchain.get(0).transactions.get(0);
+
+        if(snapshot != null) validator.resume(snapshot.height + 1, snapshot.hash, UTXOs, difficulty, genesisTransaction);
+        UTXOSnapshot.replay(blockchain, snapshot == null ? 0 : snapshot.height + 1, UTXOs);
+
+        log.info("Restored " + blockchain.size() + " blocks, UTXOs from " + (snapshot == null ? "genesis" : snapshot)
+                + ", " + UTXOs.size() + " unspent outputs");
     }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+// Hashes one nonce at a time, the fallback engine when SIMD lanes aren't available.
+public class ScalarNonceSearcher implements NonceSearcher {
+
+    @Override
+    public long search(HeaderHasher header, int firstNonce, int count, int targetBits) {
+        for(int i = 0; i < count; i++) {
+            int nonce = firstNonce + i;
+
+            if(header.meetsTarget(nonce, targetBits)) return nonce;
+        }
+
+        return NOT_FOUND;
+    }
+
+    @Override
+    public int getLanes() {
+        return 1;
+    }
+}
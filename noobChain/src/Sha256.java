@@ -0,0 +1,104 @@
+/* SHA-256 COMPRESSION:
+    java.security.MessageDigest is a fine general purpose hasher, but every digest() call hands back a new byte array
+    and the only way to reuse a partially hashed input is clone(), which allocates a whole new digest object. The
+    mining loop hashes millions of headers that differ only in a few bytes, so it needs something leaner.
+
+    This class exposes the raw SHA-256 compression function over int words. A caller can hash the constant part of
+    its input once, keep the resulting 8-word state (the "midstate"), and then only run the final compression for
+    every candidate, all inside arrays it allocated up front.
+*/
+public final class Sha256 {
+
+    // Initial hash value: first 32 bits of the fractional parts of the square roots of the first 8 primes.
+    static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    // Round constants: first 32 bits of the fractional parts of the cube roots of the first 64 primes.
+    static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private Sha256() {
+    }
+
+    // Runs one compression round over a 64-byte block given as 16 big-endian words in w[0..15].
+    // w must have room for 64 words, its tail is used as the message schedule. The result replaces 'state'.
+    public static void compress(int[] state, int[] w) {
+        for(int t = 16; t < 64; t++) {
+            int s0 = Integer.rotateRight(w[t-15], 7) ^ Integer.rotateRight(w[t-15], 18) ^ (w[t-15] >>> 3);
+            int s1 = Integer.rotateRight(w[t-2], 17) ^ Integer.rotateRight(w[t-2], 19) ^ (w[t-2] >>> 10);
+            w[t] = w[t-16] + s0 + w[t-7] + s1;
+        }
+
+        int a = state[0], b = state[1], c = state[2], d = state[3];
+        int e = state[4], f = state[5], g = state[6], h = state[7];
+
+        for(int t = 0; t < 64; t++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int temp1 = h + s1 + ch + K[t] + w[t];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int temp2 = s0 + maj;
+
+            h = g;
+            g = f;
+            f = e;
+            e = d + temp1;
+            d = c;
+            c = b;
+            b = a;
+            a = temp1 + temp2;
+        }
+
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+    // Reads 16 big-endian words from 'bytes' starting at 'offset' into w[0..15].
+    public static void loadWords(byte[] bytes, int offset, int[] w) {
+        for(int i = 0; i < 16; i++) {
+            int p = offset + i * 4;
+            w[i] = ((bytes[p] & 0xff) << 24) | ((bytes[p+1] & 0xff) << 16) | ((bytes[p+2] & 0xff) << 8) | (bytes[p+3] & 0xff);
+        }
+    }
+
+    // Number of leading zero bits of a digest held as 8 state words.
+    public static int leadingZeroBits(int[] state) {
+        int bits = 0;
+
+        for(int word : state) {
+            if(word != 0) return bits + Integer.numberOfLeadingZeros(word);
+            bits += 32;
+        }
+
+        return bits;
+    }
+
+    // Same lowercase hex form StringUtil.applySha256 returns.
+    public static String toHex(int[] state) {
+        char[] hex = new char[64];
+
+        for(int i = 0; i < 8; i++) {
+            for(int j = 0; j < 8; j++) {
+                hex[i * 8 + j] = Character.forDigit((state[i] >>> (28 - j * 4)) & 0xf, 16);
+            }
+        }
+
+        return new String(hex);
+    }
+}
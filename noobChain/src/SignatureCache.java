@@ -0,0 +1,128 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/* SIGNATURE CACHE:
+    Remembers signatures that have already been verified, so a transaction pays for ECDSA verification once. Without
+    it every transaction is verified when it's added to a block and again on every isChainValid() run, and those
+    verifications are most of what validation costs.
+
+    An entry is the SHA-256 of the public key, the signed data and the signature together. A hit means exactly this key
+    verified exactly this signature over exactly this data before; change any of the three and it's a different entry
+    that gets verified for real. Only successful verifications are stored, a bad signature is checked every time.
+
+    The cache is bounded. It's split into segments, each a LinkedHashMap in access order behind its own lock, and a
+    segment that's full drops its least recently used entry. Threads looking up different entries rarely meet on the
+    same segment, and an entry costs a 32 byte digest plus the map's overhead instead of the transaction it came from.
+*/
+public class SignatureCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SignatureCache(int capacity) {
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+
+        for(int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    // Same result as StringUtil.verifyECDSASig(), without the ECDSA work when the signature was verified before.
+    public boolean verify(@NotNull Address address, byte[] data, byte[] signature) {
+        if(signature == null) return false;
+
+        ByteBuffer key = entryKey(address, data, signature);
+        Segment segment = segments[key.getInt(0) & (SEGMENTS - 1)];
+
+        synchronized (segment) {
+            if(segment.get(key) != null) {
+                hits.increment();
+                return true;
+            }
+        }
+
+        misses.increment();
+        boolean verified = StringUtil.verifyECDSASig(address.getPublicKey(), data, signature); // outside the lock, it's the slow part
+
+        if(verified) {
+            synchronized (segment) {
+                segment.put(key, Boolean.TRUE);
+            }
+        }
+
+        return verified;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public int size() {
+        int size = 0;
+        for(Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    // Forgets every entry and resets the counters.
+    public void clear() {
+        for(Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    private static ByteBuffer entryKey(Address address, byte[] dataBytes, byte[] signature) {
+        MessageDigest digest = CryptoEngine.sha256();
+        byte[] encodedKey = address.encoded();
+
+        // Lengths go in first, so the boundaries between the three parts can't be shifted around.
+        digest.update(ByteBuffer.allocate(12).putInt(encodedKey.length).putInt(dataBytes.length).putInt(signature.length).array());
+        digest.update(encodedKey);
+        digest.update(dataBytes);
+        digest.update(signature);
+
+        return ByteBuffer.wrap(digest.digest()); // equals and hashCode compare the contents
+    }
+
+    private static class Segment extends LinkedHashMap<ByteBuffer, Boolean> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true); // access order, so the eldest entry is the least recently used one
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+/* STORED CHAIN:
+    The main chain by height, NoobChain.blockchain. It used to be an ArrayList holding every block, so a node restarted
+    from its BlockStore decoded the whole chain onto the heap before it could do anything. Now the blocks the store
+    already holds stay in the store:
+
+        - heights below 'stored' are the store's blocks. get() decodes one when it's asked for and keeps it through a
+          SoftReference, so a block in use is the same object every time it's read, and blocks nobody holds on to
+          can be dropped by the collector and read again later
+        - blocks appended with add() after that are held in memory, like before
+
+    Without a store (attach() never called, or the list cleared) it's an ordinary list of blocks in memory.
+
+    The list can only grow at the end and be cut back from the end, which is all NoobChain and BlockIndex do to it.
+    Cutting below 'stored' just lowers it, the blocks stay in the store until NoobChain.storeMainChain() rewrites it.
+
+    A cached block can be changed in place like any other. isStored() tells whether the first blocks are still
+    exactly the store's: each cached block's ChainValidator.fingerprint() is kept from when it was decoded and
+    compared, and blocks that aren't cached can't have been changed.
+
+    The methods are synchronized, so two threads reading the same block get the same object.
+*/
+public class StoredChain extends AbstractList<Block> implements RandomAccess {
+
+    private BlockStore store; // null while nothing is stored
+    private int stored; // blocks at heights below this are read from 'store'
+    private SoftReference<Block>[] cache = newCache(0); // by height, null until the block is first read
+    private long[] fingerprints = new long[0]; // of each cached block, as it was decoded
+    private final ArrayList<Block> appended = new ArrayList<>(); // the blocks after 'stored'
+
+    // Makes the store's blocks the whole list, without reading any of them.
+    public synchronized void attach(@NotNull BlockStore store) {
+        clear();
+        this.store = store;
+        stored = store.size();
+        cache = newCache(stored);
+        fingerprints = new long[stored];
+    }
+
+    @Override
+    public synchronized Block get(int height) {
+        if(height < 0 || height >= size()) throw new IndexOutOfBoundsException("Height " + height + ", size " + size());
+        if(height >= stored) return appended.get(height - stored);
+
+        Block block = cache[height] == null ? null : cache[height].get();
+        if(block == null) {
+            try {
+                block = store.get(height);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read block " + height + " from the block store", e);
+            }
+            cache[height] = new SoftReference<>(block);
+            fingerprints[height] = ChainValidator.fingerprint(block);
+        }
+
+        return block;
+    }
+
+    @Override
+    public synchronized int size() {
+        return stored + appended.size();
+    }
+
+    @Override
+    public synchronized boolean add(@NotNull Block block) {
+        appended.add(block);
+        modCount++;
+        return true;
+    }
+
+    // Used by clear() and subList().clear(). Only the end of the chain can be removed.
+    @Override
+    protected synchronized void removeRange(int fromIndex, int toIndex) {
+        if(toIndex != size()) throw new UnsupportedOperationException("Blocks can only be removed from the end of the chain");
+        if(fromIndex >= toIndex) return;
+
+        if(fromIndex >= stored) {
+            appended.subList(fromIndex - stored, appended.size()).clear();
+        } else {
+            appended.clear();
+            for(int height = fromIndex; height < stored; height++) {
+                cache[height] = null;
+            }
+            stored = fromIndex;
+            if(stored == 0) store = null;
+        }
+        modCount++;
+    }
+
+    // True if the first 'count' blocks are still the store's, unchanged, and the last of them has hash 'hash'.
+    public synchronized boolean isStored(int count, String hash) {
+        if(store == null || count > stored || store.getHeight(hash) != count - 1) return false;
+
+        for(int height = 0; height < count; height++) {
+            Block block = cache[height] == null ? null : cache[height].get();
+            if(block != null && ChainValidator.fingerprint(block) != fingerprints[height]) return false;
+        }
+
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SoftReference<Block>[] newCache(int size) {
+        return (SoftReference<Block>[]) new SoftReference<?>[size];
+    }
+}
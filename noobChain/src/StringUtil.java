@@ -30,9 +30,10 @@ public class StringUtil {
 
             Here is a line-by-line explanation of what the code does:
 
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");: This line gets an instance of the
-            MessageDigest class with the algorithm set to SHA-256. A MessageDigest object is used to calculate the hash
-            of input data.
+            MessageDigest digest = CryptoEngine.sha256();: This line gets this thread's MessageDigest for SHA-256 from
+            the CryptoEngine. A MessageDigest object is used to calculate the hash of input data. Looking one up with
+            MessageDigest.getInstance() on every hash walks the provider list each time, so every thread keeps one and
+            reuses it.
 
             byte[] hash = digest.digest(input.getBytes("UTF-8"));: This line applies the hash function to the input
             string by calling the digest() method on the MessageDigest object. The input string is first converted to a
@@ -59,7 +60,7 @@ public class StringUtil {
          */
 
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            MessageDigest digest = CryptoEngine.sha256();
 
             // Applies sha256 to our input,
             byte[] hash = digest.digest(input.getBytes("UTF-8"));
@@ -77,14 +78,27 @@ public class StringUtil {
         }
     }
 
+    // Applies Sha256 to raw bytes, such as the fixed-width encoding of a transaction, and returns the result as hex.
+    public static @NotNull String applySha256(byte[] input) {
+        byte[] hash = CryptoEngine.sha256(input);
+
+        char[] hex = new char[hash.length * 2];
+        for(int i = 0; i < hash.length; i++) {
+            hex[i * 2] = Character.forDigit((hash[i] >>> 4) & 0xf, 16);
+            hex[i * 2 + 1] = Character.forDigit(hash[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
     // Applies ECDSA Signature and returns the result ( as bytes ).
     public static byte[] applyECDSASig(PrivateKey privateKey, String input) {
         /* FUNCTION BREAKDOWN:
             This code is a method to apply an ECDSA (Elliptic Curve Digital Signature Algorithm) signature to a given
             input string using a private key. Here's what each part of the code does:
 
-            dsa = Signature.getInstance("ECDSA", "BC");: This line initializes a new Signature object with the "ECDSA"
-            algorithm and "BC" provider (which stands for Bouncy Castle, a third-party cryptography library).
+            CryptoEngine.get().sign(privateKey, strByte);: The signing itself is done by the CryptoEngine in use, Bouncy
+            Castle ("ECDSA" with the "BC" provider) unless the chain was told otherwise. It keeps one Signature object per
+            thread, instead of a new Signature.getInstance() for every signature, and does the following with it:
 
             dsa.initSign(privateKey);: This line initializes the Signature object with the provided private key. This
             means that the signature will be generated using the private key associated with the public key that will
@@ -103,20 +117,12 @@ public class StringUtil {
             Finally, the method returns the output variable containing the signature byte array.
 
          */
-        Signature dsa;
-
         byte[] output;
 
         try {
-            dsa = Signature.getInstance("ECDSA", "BC");
-
-            dsa.initSign(privateKey);
-
             byte[] strByte = input.getBytes();
 
-            dsa.update(strByte);
-
-            byte[] realSig = dsa.sign();
+            byte[] realSig = CryptoEngine.get().sign(privateKey, strByte);
 
             output = realSig;
 
@@ -127,6 +133,24 @@ public class StringUtil {
         return output;
     }
 
+    // Signs raw bytes instead of a String.
+    public static byte[] applyECDSASig(PrivateKey privateKey, byte[] input) {
+        try {
+            return CryptoEngine.get().sign(privateKey, input);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Verifies a signature over raw bytes.
+    public static boolean verifyECDSASig(PublicKey publicKey, byte[] data, byte[] signature) {
+        try {
+            return CryptoEngine.get().verify(publicKey, data, signature);
+        }catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     // Verifies a String signature
     public static boolean verifyECDSASig(PublicKey publicKey, String data, byte[] signature) {
         /* FUNCTION BREAKDOWN:
@@ -136,8 +160,8 @@ public class StringUtil {
             data: The data that was signed.
             signature: The signature to be verified.
 
-            Inside the method, the code first initializes an instance of the Signature class with the ECDSA algorithm
-            and the BC provider.
+            Inside the method, the code asks the CryptoEngine in use for this thread's Signature object (ECDSA from the
+            BC provider by default), instead of getting a new instance every time.
 
             It then initializes the Signature object for verification using the given publicKey.
 
@@ -150,13 +174,7 @@ public class StringUtil {
 
          */
         try {
-            Signature ecdsaVerify = Signature.getInstance("ECDSA", "BC");
-
-            ecdsaVerify.initVerify(publicKey);
-
-            ecdsaVerify.update(data.getBytes());
-
-            return ecdsaVerify.verify(signature);
+            return CryptoEngine.get().verify(publicKey, data.getBytes(), signature);
         }catch(Exception e) {
             throw new RuntimeException(e);
         }
@@ -203,6 +221,77 @@ public class StringUtil {
         return Base64.getEncoder().encodeToString(key.getEncoded());
     }
 
+    // Turns a hex hash into its 32 raw bytes. Shorter strings such as the "0" genesis hash are left-padded with zeros.
+    public static byte[] getHashBytes(String hash) {
+        byte[] bytes = new byte[32];
+
+        if(hash == null) return bytes;
+
+        if(hash.length() > 64) throw new IllegalArgumentException("Not a SHA-256 hash: " + hash);
+
+        for(int i = 0; i < hash.length(); i++) {
+            int digit = Character.digit(hash.charAt(hash.length() - 1 - i), 16);
+
+            if(digit < 0) throw new IllegalArgumentException("Not a SHA-256 hash: " + hash);
+
+            bytes[31 - i / 2] = (byte) (bytes[31 - i / 2] | ((i % 2 == 0) ? digit : digit << 4));
+        }
+
+        return bytes;
+    }
+
+    // Same as getHashBytes, but into 4 big-endian longs at words[offset..offset+3] without allocating.
+    public static void getHashWords(String hash, long[] words, int offset) {
+        int padding = 64 - (hash == null ? 0 : hash.length()); // leading zero digits
+
+        if(padding < 0) throw new IllegalArgumentException("Not a SHA-256 hash: " + hash);
+
+        for(int w = 0; w < 4; w++) {
+            long word = 0;
+
+            for(int c = w * 16; c < w * 16 + 16; c++) {
+                int digit = c < padding ? 0 : Character.digit(hash.charAt(c - padding), 16);
+
+                if(digit < 0) throw new IllegalArgumentException("Not a SHA-256 hash: " + hash);
+
+                word = (word << 4) | digit;
+            }
+
+            words[offset + w] = word;
+        }
+    }
+
+    // Whether 'hash' is in the form getHashString gives back: "0" or 64 lowercase hex digits that aren't all zero. Those
+    // are exactly the strings that map to 4 longs and back unchanged, so no two of them share a key.
+    public static boolean isHash(String hash) {
+        if(hash == null) return false;
+        if(hash.equals("0")) return true;
+        if(hash.length() != 64) return false;
+
+        boolean zero = true;
+        for(int i = 0; i < 64; i++) {
+            char c = hash.charAt(i);
+
+            if((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+            if(c != '0') zero = false;
+        }
+
+        return !zero;
+    }
+
+    // Hex form of a hash held as 4 longs. The all-zero hash is the "0" used for the genesis block and transaction.
+    public static String getHashString(long[] words, int offset) {
+        if((words[offset] | words[offset + 1] | words[offset + 2] | words[offset + 3]) == 0) return "0";
+
+        char[] hex = new char[64];
+
+        for(int i = 0; i < 64; i++) {
+            hex[i] = Character.forDigit((int) (words[offset + i / 16] >>> (60 - (i % 16) * 4)) & 0xf, 16);
+        }
+
+        return new String(hex);
+    }
+
     public static String getMerkleRoot(@NotNull ArrayList<Transaction> transactions) {
         /* FUNCTION BREAKDOWN:
             This code calculates the Merkle root of a list of transactions using the SHA-256 hashing algorithm. The
@@ -237,29 +326,16 @@ public class StringUtil {
             ArrayList. The Merkle root is then used as part of the block header in the blockchain to ensure the integrity
             and authenticity of the included transactions.
 
-         */
-        int count = transactions.size();
+            The layers are built by MerkleTree, which hashes raw 32 byte digests instead of hex Strings and splits large
+            layers across the cores, and gives exactly the root described above.
 
-        List<String> previousTreeLayer = new ArrayList<String>();
+         */
+        List<String> transactionIds = new ArrayList<String>(transactions.size());
 
         for(Transaction transaction : transactions) {
-            previousTreeLayer.add(transaction.transactionId);
-        }
-
-        List<String> treeLayer = previousTreeLayer;
-
-        while(count > 1) {
-            treeLayer = new ArrayList<String>();
-
-            for(int i=1; i < previousTreeLayer.size(); i+=2) {
-                treeLayer.add(applySha256(previousTreeLayer.get(i-1) + previousTreeLayer.get(i)));
-            }
-
-            count = treeLayer.size();
-
-            previousTreeLayer = treeLayer;
+            transactionIds.add(transaction.transactionId);
         }
 
-        return (treeLayer.size() == 1) ? treeLayer.get(0) : "";
+        return MerkleTree.build(transactionIds).getRoot();
     }
 }
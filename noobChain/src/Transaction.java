@@ -1,23 +1,30 @@
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Transaction {
 
     public String transactionId; // Contains a hash of transaction
-    public PublicKey sender; // Senders address/public key.
-    public PublicKey reciepient; // Recipients address/public key.
-    public float value; // Contains the amount we wish to send to the recipient.
+    public Address sender; // Senders address/public key.
+    public Address reciepient; // Recipients address/public key.
+    public long value; // Contains the amount we wish to send to the recipient, in base units (see Amount).
     public byte[] signature; // This is to prevent anybody else from spending funds in our wallet.
 
     public ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
     public ArrayList<TransactionOutput> outputs = new ArrayList<TransactionOutput>();
 
-    private static int sequence = 0; // A rough count of how many transactions have been generated
+    private static final AtomicLong sequence = new AtomicLong(); // A count of how many transactions have been generated, unique even across threads
+
+    // Accepted and rejected transactions by status, from processTransaction() and Block.addTransactions().
+    static final Metrics.Counter[] statusCounters = NoobChain.metrics.statusCounters("transactions");
+    private static final Metrics.Histogram processNanos = NoobChain.metrics.histogram("transaction.processNanos");
+    private static final Metrics.Histogram verifyNanos = NoobChain.metrics.histogram("transaction.verifySignatureNanos");
 
     // Constructor:
-    public Transaction(PublicKey from, PublicKey to, float value,  ArrayList<TransactionInput> inputs) {
+    public Transaction(Address from, Address to, long value,  ArrayList<TransactionInput> inputs) {
         this.sender = from;
         this.reciepient = to;
         this.value = value;
@@ -30,62 +37,103 @@ public class Transaction {
             that the transaction was indeed signed by the owner of the sender public key.
 
             It then checks if each input transaction is valid and unspent by checking if the output is in the list of
-            unspent transactions (UTXOs).
+            unspent transactions (UTXOs). If any input can't be found the transaction is rejected.
 
             If the total value of the input transactions is less than the value being sent (value), then the transaction
-            is considered invalid and the method returns false.
+            is considered invalid and the method returns false. So is a value of zero or less, which would otherwise
+            make the change bigger than the inputs.
 
             If the transaction is valid, it generates two outputs: one for the recipient and one for the sender
-            (as change). These outputs are added to the outputs list.
+            (as change). These outputs are added to the outputs list. When the inputs add up to exactly the value sent
+            there is no change, and no change output is made; an output worth nothing would only sit in the UTXOs.
 
             The transaction ID is then calculated based on the hash of the input data, and each output is associated
             with the transaction ID.
 
             Finally, the outputs are added to the list of unspent transactions (UTXOs) and the spent inputs are removed
-            from the list of unspent transactions.
+            from the list of unspent transactions. Both happen in a single UTXOSet.spend() call, so when two threads
+            process transactions spending the same output, exactly one of them succeeds and the other is rejected.
 
             Overall, the processTransaction() method plays a critical role in validating and processing new transactions
             within the blockchain network.
+
+            Every call is timed into the transaction.processNanos histogram and counted under its TransactionStatus in
+            NoobChain.metrics.
          */
+        long start = System.nanoTime();
+        TransactionStatus status = process();
+        processNanos.recordSince(start);
+        statusCounters[status.ordinal()].increment();
+
+        return status.isAccepted();
+    }
+
+    private TransactionStatus process() {
+        if(value <= 0) {
+            return reject(TransactionStatus.INVALID_VALUE, "#Transaction value must be positive: " + Amount.format(value));
+        }
 
         if(!verifySignature()) {
-            System.out.println("#Transaction Signature failed to verify");
-            return false;
+            return reject(TransactionStatus.INVALID_SIGNATURE, "#Transaction Signature failed to verify");
         }
 
         // Gathers transaction inputs (Making sure they are unspent):
         for(TransactionInput i : inputs) {
             i.UTXO = NoobChain.UTXOs.get(i.transactionOutputId);
+
+            if(i.UTXO == null) {
+                return reject(TransactionStatus.MISSING_INPUTS, "#Transaction Input not found or already spent: " + i.transactionOutputId);
+            }
         }
 
         // Checks if transaction is valid:
         if(getInputsValue() < NoobChain.minimumTransaction) {
-            System.out.println("Transaction Inputs too small: " + getInputsValue());
-            System.out.println("Please enter the amount greater than " + NoobChain.minimumTransaction);
-            return false;
+            return reject(TransactionStatus.INPUTS_TOO_SMALL, "Transaction Inputs too small: " + Amount.format(getInputsValue())
+                    + "\nPlease enter the amount greater than " + Amount.format(NoobChain.minimumTransaction));
+        }
+        if(getInputsValue() < value) {
+            return reject(TransactionStatus.INSUFFICIENT_FUNDS, "#Transaction Inputs don't cover the value sent: " + Amount.format(getInputsValue()));
         }
 
         // Generate transaction outputs:
-        float leftOver = getInputsValue() - value; // get value of inputs then the leftover change:
-        transactionId = calulateHash();
-        outputs.add(new TransactionOutput( this.reciepient, value, transactionId)); // send value to recipient
-        outputs.add(new TransactionOutput( this.sender, leftOver, transactionId)); // send the left over 'change' back to sender
+        createOutputs();
 
-        // Add outputs to Unspent list
-        for(TransactionOutput o : outputs) {
-            NoobChain.UTXOs.put(o.id , o);
+        // Add outputs to Unspent list and remove transaction inputs from it as spent, in one step:
+        ArrayList<String> spent = new ArrayList<>(inputs.size());
+        for(TransactionInput i : inputs) {
+            spent.add(i.UTXO.id);
         }
 
-        // Remove transaction inputs from UTXO lists as spent:
-        for(TransactionInput i : inputs) {
-            if(i.UTXO == null) continue; // if Transaction can't be found skip it
-            NoobChain.UTXOs.remove(i.UTXO.id);
+        if(!NoobChain.UTXOs.spend(spent, outputs)) {
+            // Another transaction spent one of the inputs since they were gathered.
+            discardOutputs();
+            return reject(TransactionStatus.DOUBLE_SPEND, "#Transaction Inputs already spent. Transaction Discarded.");
         }
 
-        return true;
+        return TransactionStatus.ACCEPTED;
     }
 
-    public float getInputsValue() {
+    // Reports why the transaction was rejected, through NoobChain.log so the caller doesn't wait on the console.
+    private static TransactionStatus reject(TransactionStatus reason, String message) {
+        NoobChain.log.transactionRejected(reason, message);
+        return reason;
+    }
+
+    // Gives the transaction its id and its two outputs, once its inputs have been gathered and checked.
+    void createOutputs() {
+        long leftOver = Math.subtractExact(getInputsValue(), value); // get value of inputs then the leftover change:
+        transactionId = calulateHash();
+        outputs.add(new TransactionOutput( this.reciepient, value, transactionId)); // send value to recipient
+        if(leftOver != 0) outputs.add(new TransactionOutput( this.sender, leftOver, transactionId)); // send the left over 'change' back to sender, if any
+    }
+
+    // Undoes createOutputs() when the outputs can't be added to the UTXO set after all.
+    void discardOutputs() {
+        outputs.clear();
+        transactionId = null;
+    }
+
+    public long getInputsValue() {
         /* FUNCTION BREAKDOWN:
             This function calculates the total value of all inputs in a transaction by iterating through the list of
             inputs and adding up their corresponding values:
@@ -105,13 +153,13 @@ public class Transaction {
             for verifying the validity of the transaction and generating the change output.
 
          */
-        float total = 0;
+        long total = 0;
 
         for(TransactionInput i : inputs) {
 
             if(i.UTXO == null) continue; // if Transaction can't be found skip it, This behavior may not be optimal.
 
-            total += i.UTXO.value;
+            total = Math.addExact(total, i.UTXO.value);
         }
 
         return total;
@@ -122,8 +170,8 @@ public class Transaction {
             This function generates a digital signature for a transaction by using the sender's private key to sign the
             transaction data. Here are the steps it performs:
 
-            Concatenate the sender's public key, recipient's public key, and transaction value to form the data string
-            that will be signed.
+            Concatenate the sender's public key, recipient's public key, and transaction value to form the data that
+            will be signed. The keys go in as their X.509 bytes and the value as 8 bytes, see getSignedData().
 
             Use the StringUtil.applyECDSASig method to apply an ECDSA signature to the data using the sender's private
             key.
@@ -131,30 +179,33 @@ public class Transaction {
             Assign the resulting signature to the signature field of the Transaction object.
 
          */
-        String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(reciepient) + Float.toString(value)	;
-
-        signature = StringUtil.applyECDSASig(privateKey,data);
+        signature = StringUtil.applyECDSASig(privateKey, getSignedData());
     }
 
     public boolean verifySignature() {
         /* FUNCTION GENERATOR:
             This function is used to verify the digital signature of a transaction. Here are the steps involved:
 
-            Concatenate the sender's public key, the recipient's public key, and the value of the transaction as a string.
+            Concatenate the sender's public key, the recipient's public key, and the value of the transaction, in the
+            same binary form generateSignature() signed.
 
             Use the StringUtil.verifyECDSASig() method to verify the signature by passing in the sender's public key,
-            the concatenated string from step 1, and the signature itself.
+            the concatenated string from step 1, and the signature itself. This goes through NoobChain.signatureCache,
+            so a signature that was verified before (when the transaction was added to a block, say) isn't verified
+            again on every isChainValid() run.
 
             If the signature is valid, the method returns true, indicating that the transaction is valid. Otherwise,
             it returns false.
 
          */
-        String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(reciepient) + Float.toString(value)	;
+        long start = System.nanoTime();
+        boolean verified = NoobChain.signatureCache.verify(sender, getSignedData(), signature);
+        verifyNanos.recordSince(start);
 
-        return StringUtil.verifyECDSASig(sender, data, signature);
+        return verified;
     }
 
-    public float getOutputsValue() {
+    public long getOutputsValue() {
         /* FUNCTION BREAKDOWN:
             Initialize a variable total to 0.
 
@@ -167,11 +218,11 @@ public class Transaction {
             by iterating over them and adding up their values.
 
          */
-        float total = 0;
+        long total = 0;
 
         for(TransactionOutput o : outputs) {
 
-            total += o.value;
+            total = Math.addExact(total, o.value);
         }
 
         return total;
@@ -184,19 +235,37 @@ public class Transaction {
             Increment the sequence number to avoid two identical transactions having the same hash.
 
             Concatenate the sender's public key, the recipient's public key, the transaction value, and the sequence
-            number into a single string.
+            number. The keys are their X.509 bytes and the value and sequence number 8 bytes each, so nothing has to be
+            formatted as text.
 
             Apply the SHA-256 hashing algorithm to the concatenated string to get the hash value.
 
             Return the hash value as a string.
 
          */
-        sequence++; //increase the sequence to avoid 2 identical transactions having the same hash
+        long number = sequence.incrementAndGet(); //increase the sequence to avoid 2 identical transactions having the same hash
+
+        byte[] from = sender.encoded();
+        byte[] to = reciepient.encoded();
+
+        return StringUtil.applySha256(ByteBuffer.allocate(from.length + to.length + 16)
+                .put(from)
+                .put(to)
+                .putLong(value)
+                .putLong(number)
+                .array());
+    }
 
-        return StringUtil.applySha256(
-                StringUtil.getStringFromKey(sender) +
-                        StringUtil.getStringFromKey(reciepient) +
-                        Float.toString(value) + sequence
-        );
+    // What the sender signs: both keys as X.509 bytes, then the value as 8 bytes. An X.509 encoding carries its own
+    // length, so the three parts can't be shifted into each other.
+    byte[] getSignedData() {
+        byte[] from = sender.encoded();
+        byte[] to = reciepient.encoded();
+
+        return ByteBuffer.allocate(from.length + to.length + 8)
+                .put(from)
+                .put(to)
+                .putLong(value)
+                .array();
     }
 }
@@ -1,22 +1,41 @@
-import java.security.PublicKey;
+import java.nio.ByteBuffer;
 
 public class TransactionOutput {
     public String id;
-    public PublicKey reciepient; // also known as the new owner of these coins.
-    public float value; // the amount of coins they own
+    public Address reciepient; // also known as the new owner of these coins.
+    public long value; // the amount they own, in base units (see Amount)
     public String parentTransactionId; // the id of the transaction this output was created in
 
     // Constructor
-    public TransactionOutput(PublicKey reciepient, float value, String parentTransactionId) {
+    public TransactionOutput(Address reciepient, long value, String parentTransactionId) {
         this.reciepient = reciepient;
         this.value = value;
         this.parentTransactionId = parentTransactionId;
-        this.id = StringUtil.applySha256(StringUtil.getStringFromKey(reciepient)+Float.toString(value)+parentTransactionId);
+        this.id = calculateId(reciepient, value, parentTransactionId);
+    }
+
+    // Rebuilds an output whose id is already known, e.g. when it is read back from a compact store.
+    TransactionOutput(String id, Address reciepient, long value, String parentTransactionId) {
+        this.id = id;
+        this.reciepient = reciepient;
+        this.value = value;
+        this.parentTransactionId = parentTransactionId;
+    }
+
+    // Hash of the recipient's key, the value as 8 bytes and the raw 32 byte parent id: fixed width, no text formatting.
+    static String calculateId(Address reciepient, long value, String parentTransactionId) {
+        byte[] key = reciepient.encoded();
+
+        return StringUtil.applySha256(ByteBuffer.allocate(key.length + 8 + 32)
+                .put(key)
+                .putLong(value)
+                .put(StringUtil.getHashBytes(parentTransactionId))
+                .array());
     }
 
     // Check if coin belongs to you
-    public boolean isMine(PublicKey publicKey) {
-        return (publicKey == reciepient);
+    public boolean isMine(Address address) {
+        return reciepient.equals(address);
     }
 
 }
\ No newline at end of file
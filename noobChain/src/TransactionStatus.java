@@ -0,0 +1,21 @@
+/* TRANSACTION STATUS:
+    Why a transaction was or wasn't accepted, so callers that submit many transactions at once can tell the failures
+    apart instead of getting a bare false.
+*/
+public enum TransactionStatus {
+
+    ACCEPTED,
+    NULL, // no transaction at all
+    DUPLICATE, // the same transaction was already accepted
+    INVALID_VALUE, // sends zero or less
+    INVALID_SIGNATURE, // not signed by the sender's private key
+    MISSING_INPUTS, // spends an output that isn't in the UTXO set, or has no inputs
+    DOUBLE_SPEND, // spends an output that another pending transaction (or itself, twice) already spends
+    INPUTS_TOO_SMALL, // the inputs add up to less than NoobChain.minimumTransaction
+    INSUFFICIENT_FUNDS, // the inputs add up to less than the value sent
+    POOL_FULL; // the mempool is at capacity
+
+    public boolean isAccepted() {
+        return this == ACCEPTED;
+    }
+}
@@ -0,0 +1,607 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/* UTXO SET:
+    The set of unspent transaction outputs, keyed by output id. Next to that it keeps a secondary index from each owner
+    (the recipient Address) to that owner's outputs, along with a running total of their value. Asking for a
+    wallet's balance or its spendable outputs then only touches that wallet's own entries instead of scanning every
+    unspent output on the chain.
+
+    STORAGE LAYOUT:
+    A HashMap<String, TransactionOutput> costs several hundred bytes per output: the 64 character id String, the
+    entry, the output object and its two more hex Strings. Here every output lives in one slot of an open-addressing
+    table made of primitive arrays:
+
+        keys       4 longs   the raw 32 byte output id
+        parents    4 longs   the raw 32 byte id of the transaction that created it
+        values     1 long    the amount, in base units
+        owners     1 int     index into the owner table, 0 for an empty slot
+        next/prev  2 ints    the owner's outputs as a doubly linked list through the slots
+
+    That is 84 bytes per slot and no objects at all, and a lookup reads a few adjacent array elements instead of
+    chasing pointers. Collisions are resolved by linear probing, and removal shifts the following entries back so no
+    tombstones are needed. TransactionOutput objects are only created when an output is read.
+
+    STRIPES:
+    The outputs are split over a number of stripes by the low bits of their id, and each stripe is a table of its own
+    with its own lock. Threads working on outputs in different stripes never wait for each other, so transactions
+    spending unrelated outputs are processed in parallel.
+
+    A transaction spends all of its inputs and adds all of its outputs in one spend() call. That call locks every
+    stripe the transaction touches, always in stripe order so two transactions can't deadlock, checks that every
+    input is still unspent and only then changes anything. When two transactions race for the same output, exactly one
+    of them finds it still there; the other changes nothing and is rejected.
+
+    The owner table is shared by the stripes. Each stripe keeps the lists, counts and balances of the outputs it holds
+    per owner, and a balance is the sum over the stripes. Those live in a second, small open-addressing table in the
+    stripe, keyed by owner id and holding only the owners that have outputs there: arrays indexed by the global owner
+    id would grow every stripe to the full owner count, 16 bytes per owner per stripe whether it holds any of theirs
+    or not. A balance read while a transaction of the same owner is being applied may see some of its stripes before
+    and some after the change.
+
+    Ids are only accepted in the form StringUtil.isHash describes, the one they're read back in. Any other string
+    (upper case, shorter, not hex) could otherwise land on the key of a different id, so get() and containsKey() treat
+    it as absent and spend() fails on it; put() throws, since an output with such an id can't be stored.
+
+    Owners are matched by Address equality, the same way TransactionOutput.isMine() compares them, so outputs read
+    back from disk still belong to the wallet that owns them.
+*/
+public class UTXOSet {
+
+    private final Stripe[] stripes;
+
+    // Owner table, shared by all stripes. Index 0 is reserved for "empty slot".
+    private final ConcurrentHashMap<Address, Integer> ownerIds = new ConcurrentHashMap<>();
+    private volatile Address[] ownerKeys = new Address[16];
+    private int ownerCount = 1;
+
+    public UTXOSet() {
+        this(Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+    }
+
+    // 'stripeCount' is rounded up to a power of two.
+    public UTXOSet(int stripeCount) {
+        int count = 1;
+        while(count < stripeCount) count <<= 1;
+
+        stripes = new Stripe[count];
+        for(int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public TransactionOutput get(String id) {
+        long[] key = words(id);
+        if(key == null) return null;
+        Stripe stripe = stripeOf(key);
+
+        stripe.lock.lock();
+        try {
+            int slot = stripe.find(key);
+            return slot < 0 ? null : stripe.materialize(slot);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public boolean containsKey(String id) {
+        long[] key = words(id);
+        if(key == null) return false;
+        Stripe stripe = stripeOf(key);
+
+        stripe.lock.lock();
+        try {
+            return stripe.find(key) >= 0;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Adds an unspent output, replacing (and unindexing) any output already stored under the same id.
+    public TransactionOutput put(String id, TransactionOutput output) {
+        long[] key = words(id);
+        long[] parent = words(output.parentTransactionId);
+        if(key == null) throw new IllegalArgumentException("Not an output id: " + id);
+        if(parent == null) throw new IllegalArgumentException("Not a transaction id: " + output.parentTransactionId);
+        int owner = ownerId(output.reciepient);
+        Stripe stripe = stripeOf(key);
+
+        stripe.lock.lock();
+        try {
+            return stripe.put(key, parent, output.value, owner);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Removes a spent output, returns it or null if it wasn't unspent.
+    public TransactionOutput remove(String id) {
+        long[] key = words(id);
+        if(key == null) return null;
+        Stripe stripe = stripeOf(key);
+
+        stripe.lock.lock();
+        try {
+            return stripe.remove(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Spends every output in 'spent' and adds every output in 'created', all at once. If any of the spent outputs isn't
+    // unspent (or is listed twice) nothing changes and false is returned.
+    public boolean spend(List<String> spent, List<TransactionOutput> created) {
+        /* FUNCTION BREAKDOWN:
+            All the parsing and the owner lookups are done before any lock is taken. Then the stripes of every id
+            involved are locked in ascending order, each one once. With all of them held, the spent outputs are checked
+            first, and only if they're all there are they removed and the new outputs put in. Another transaction
+            spending one of the same outputs needs one of the same locks, so it either runs entirely before this one
+            (and this one finds the output gone) or entirely after.
+
+            A balance that would overflow throws ArithmeticException before anything changes: the created values are
+            summed before any lock is taken, and each owner's balance plus what it's about to get is checked before the
+            spent outputs are removed.
+         */
+        if(spent.size() > 1 && new HashSet<>(spent).size() != spent.size()) return false;
+
+        long[][] spentKeys = new long[spent.size()][];
+        long[][] createdKeys = new long[created.size()][];
+        long[][] createdParents = new long[created.size()][];
+        int[] createdOwners = new int[created.size()];
+        boolean[] locked = new boolean[stripes.length];
+
+        for(int i = 0; i < spentKeys.length; i++) {
+            spentKeys[i] = words(spent.get(i));
+            if(spentKeys[i] == null) return false;
+            locked[stripeIndex(spentKeys[i])] = true;
+        }
+        long createdValue = 0;
+        for(int i = 0; i < createdKeys.length; i++) {
+            TransactionOutput output = created.get(i);
+            createdValue = Math.addExact(createdValue, output.value);
+            createdKeys[i] = words(output.id);
+            createdParents[i] = words(output.parentTransactionId);
+            if(createdKeys[i] == null || createdParents[i] == null) return false;
+            createdOwners[i] = ownerId(output.reciepient);
+            locked[stripeIndex(createdKeys[i])] = true;
+        }
+
+        for(int s = 0; s < stripes.length; s++) {
+            if(locked[s]) stripes[s].lock.lock();
+        }
+        try {
+            for(long[] key : spentKeys) {
+                if(stripeOf(key).find(key) < 0) return false;
+            }
+            for(int i = 0; i < createdKeys.length; i++) {
+                // Everything this spend adds to the owner in the stripe; the removals aren't counted, to keep it simple.
+                long added = 0;
+                for(int j = 0; j < createdKeys.length; j++) {
+                    if(createdOwners[j] == createdOwners[i] && stripeIndex(createdKeys[j]) == stripeIndex(createdKeys[i])) {
+                        added += created.get(j).value; // can't overflow, the sum of them all didn't
+                    }
+                }
+                Math.addExact(stripeOf(createdKeys[i]).getBalance(createdOwners[i]), added);
+            }
+
+            for(long[] key : spentKeys) {
+                stripeOf(key).remove(key);
+            }
+            for(int i = 0; i < createdKeys.length; i++) {
+                stripeOf(createdKeys[i]).put(createdKeys[i], createdParents[i], created.get(i).value, createdOwners[i]);
+            }
+
+            return true;
+        } finally {
+            for(int s = stripes.length - 1; s >= 0; s--) {
+                if(locked[s]) stripes[s].lock.unlock();
+            }
+        }
+    }
+
+    // Total value of the unspent outputs owned by 'address'.
+    public long getBalance(Address address) {
+        Integer owner = ownerIds.get(address);
+
+        if(owner == null) return 0;
+
+        long balance = 0;
+        for(Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                balance = Math.addExact(balance, stripe.getBalance(owner));
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return balance;
+    }
+
+    // The unspent outputs owned by 'address', by id. A read-only copy.
+    public Map<String,TransactionOutput> getOutputs(Address address) {
+        Integer owner = ownerIds.get(address);
+
+        if(owner == null) return Collections.emptyMap();
+
+        HashMap<String,TransactionOutput> outputs = new HashMap<>();
+        for(Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.collectOutputs(owner, outputs);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return outputs.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(outputs);
+    }
+
+    // Hands every unspent output to 'action', in no particular order. Stripes are visited one at a time.
+    public void forEach(Consumer<TransactionOutput> action) {
+        for(Stripe stripe : stripes) {
+            ArrayList<TransactionOutput> outputs = new ArrayList<>();
+
+            stripe.lock.lock();
+            try {
+                stripe.forEach(outputs::add);
+            } finally {
+                stripe.lock.unlock();
+            }
+
+            outputs.forEach(action); // outside the lock, so 'action' can use the set itself
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for(Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    // Removes every output. Owners keep their ids, so a put() racing with the clear still refers to a known owner.
+    public void clear() {
+        for(Stripe stripe : stripes) {
+            stripe.lock.lock();
+        }
+        try {
+            for(Stripe stripe : stripes) {
+                stripe.clear();
+            }
+        } finally {
+            for(Stripe stripe : stripes) {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    private int ownerId(Address address) {
+        Integer owner = ownerIds.get(address);
+
+        if(owner != null) return owner;
+
+        synchronized (ownerIds) {
+            owner = ownerIds.get(address);
+
+            if(owner == null) {
+                owner = ownerCount++;
+
+                Address[] keys = ownerKeys;
+                if(owner == keys.length) keys = Arrays.copyOf(keys, owner * 2);
+                keys[owner] = address;
+                ownerKeys = keys; // publishes the address before the id can be seen in ownerIds
+
+                ownerIds.put(address, owner);
+            }
+        }
+
+        return owner;
+    }
+
+    // The id as 4 longs, or null if it isn't in the canonical form.
+    private static long[] words(String hash) {
+        if(!StringUtil.isHash(hash)) return null;
+
+        long[] words = new long[4];
+        StringUtil.getHashWords(hash, words, 0);
+        return words;
+    }
+
+    private int stripeIndex(long[] key) {
+        return (int) key[3] & (stripes.length - 1); // low bits of the id, the table inside uses the high ones
+    }
+
+    private Stripe stripeOf(long[] key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    // One open-addressing table with the owner lists of the outputs in it. Only used while holding 'lock'.
+    private final class Stripe {
+
+        private static final int INITIAL_CAPACITY = 64; // slots, always a power of two
+        private static final int INITIAL_OWNER_CAPACITY = 16; // owner entries, always a power of two
+        private static final float MAX_LOAD = 0.6f;
+        private static final int NONE = -1; // end of an owner's list
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        private long[] keys;
+        private long[] parents;
+        private long[] values;
+        private int[] owners;
+        private int[] next;
+        private int[] prev;
+        private int mask;
+        private int size;
+
+        // The owners with outputs in this stripe, by entry: the owner id (0 for an empty entry), the first of the owner's
+        // slots, how many there are and what they add up to. Probed like the outputs, an entry goes when its last output does.
+        private int[] ownerEntries;
+        private int[] ownerHeads;
+        private int[] ownerCounts;
+        private long[] ownerBalances; // exact, however many outputs come and go
+        private int ownerMask;
+        private int ownerSize;
+
+        Stripe() {
+            allocate(INITIAL_CAPACITY);
+            allocateOwners(INITIAL_OWNER_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity * 4];
+            parents = new long[capacity * 4];
+            values = new long[capacity];
+            owners = new int[capacity];
+            next = new int[capacity];
+            prev = new int[capacity];
+            mask = capacity - 1;
+            size = 0;
+        }
+
+        TransactionOutput put(long[] key, long[] parent, long value, int owner) {
+            Math.addExact(getBalance(owner), value); // throws before the output it replaces is gone
+            TransactionOutput previous = remove(key);
+
+            if(size + 1 > (mask + 1) * MAX_LOAD) grow();
+
+            insert(key, 0, parent, 0, value, owner);
+
+            return previous;
+        }
+
+        TransactionOutput remove(long[] key) {
+            int slot = find(key);
+
+            if(slot < 0) return null;
+
+            TransactionOutput removed = materialize(slot);
+            delete(slot);
+
+            return removed;
+        }
+
+        long getBalance(int owner) {
+            int entry = findOwner(owner);
+            return entry < 0 ? 0 : ownerBalances[entry];
+        }
+
+        void collectOutputs(int owner, Map<String,TransactionOutput> outputs) {
+            int entry = findOwner(owner);
+            if(entry < 0) return;
+
+            for(int slot = ownerHeads[entry]; slot != NONE; slot = next[slot]) {
+                TransactionOutput output = materialize(slot);
+                outputs.put(output.id, output);
+            }
+        }
+
+        void forEach(Consumer<TransactionOutput> action) {
+            for(int slot = 0; slot <= mask; slot++) {
+                if(owners[slot] != 0) action.accept(materialize(slot));
+            }
+        }
+
+        void clear() {
+            allocate(INITIAL_CAPACITY);
+            allocateOwners(INITIAL_OWNER_CAPACITY);
+        }
+
+        private void allocateOwners(int capacity) {
+            ownerEntries = new int[capacity];
+            ownerHeads = new int[capacity];
+            ownerCounts = new int[capacity];
+            ownerBalances = new long[capacity];
+            ownerMask = capacity - 1;
+            ownerSize = 0;
+        }
+
+        private int ownerHome(int owner) {
+            return (int) ((owner * 0x9E3779B97F4A7C15L) >>> 32) & ownerMask;
+        }
+
+        private int findOwner(int owner) {
+            for(int entry = ownerHome(owner); ownerEntries[entry] != 0; entry = (entry + 1) & ownerMask) {
+                if(ownerEntries[entry] == owner) return entry;
+            }
+
+            return NONE;
+        }
+
+        // The owner's entry, added with no outputs if it has none yet.
+        private int addOwner(int owner) {
+            int entry = findOwner(owner);
+            if(entry >= 0) return entry;
+
+            if(ownerSize + 1 > (ownerMask + 1) * MAX_LOAD) growOwners();
+
+            entry = ownerHome(owner);
+            while(ownerEntries[entry] != 0) entry = (entry + 1) & ownerMask;
+
+            ownerEntries[entry] = owner;
+            ownerHeads[entry] = NONE;
+            ownerSize++;
+
+            return entry;
+        }
+
+        // Drops the entry of an owner whose last output in the stripe is gone, shifting entries back like delete() does.
+        private void removeOwner(int entry) {
+            ownerSize--;
+
+            int hole = entry;
+            for(int i = (hole + 1) & ownerMask; ownerEntries[i] != 0; i = (i + 1) & ownerMask) {
+                int home = ownerHome(ownerEntries[i]);
+
+                boolean reachable = hole <= i ? (home > hole && home <= i) : (home > hole || home <= i);
+                if(!reachable) {
+                    ownerEntries[hole] = ownerEntries[i];
+                    ownerHeads[hole] = ownerHeads[i];
+                    ownerCounts[hole] = ownerCounts[i];
+                    ownerBalances[hole] = ownerBalances[i];
+                    hole = i;
+                }
+            }
+
+            ownerEntries[hole] = 0;
+        }
+
+        private void growOwners() {
+            int[] oldEntries = ownerEntries;
+            int[] oldHeads = ownerHeads;
+            int[] oldCounts = ownerCounts;
+            long[] oldBalances = ownerBalances;
+
+            allocateOwners(oldEntries.length * 2);
+
+            for(int i = 0; i < oldEntries.length; i++) {
+                if(oldEntries[i] == 0) continue;
+
+                int entry = addOwner(oldEntries[i]);
+                ownerHeads[entry] = oldHeads[i];
+                ownerCounts[entry] = oldCounts[i];
+                ownerBalances[entry] = oldBalances[i];
+            }
+        }
+
+        private int home(long[] words, int offset) {
+            // The id is a SHA-256 digest so its bits are already uniform, the multiply just folds in the whole word.
+            return (int) ((words[offset] * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+
+        int find(long[] key) {
+            for(int slot = home(key, 0); owners[slot] != 0; slot = (slot + 1) & mask) {
+                int k = slot * 4;
+                if(keys[k] == key[0] && keys[k+1] == key[1] && keys[k+2] == key[2] && keys[k+3] == key[3]) return slot;
+            }
+
+            return NONE;
+        }
+
+        private void insert(long[] key, int keyOffset, long[] parent, int parentOffset, long value, int owner) {
+            long balance = Math.addExact(getBalance(owner), value); // first, so an overflow leaves the stripe as it was
+            int entry = addOwner(owner);
+
+            int slot = home(key, keyOffset);
+            while(owners[slot] != 0) slot = (slot + 1) & mask;
+
+            System.arraycopy(key, keyOffset, keys, slot * 4, 4);
+            System.arraycopy(parent, parentOffset, parents, slot * 4, 4);
+            values[slot] = value;
+            owners[slot] = owner;
+
+            // Link at the head of the owner's list.
+            prev[slot] = NONE;
+            next[slot] = ownerHeads[entry];
+            if(next[slot] != NONE) prev[next[slot]] = slot;
+            ownerHeads[entry] = slot;
+
+            ownerCounts[entry]++;
+            ownerBalances[entry] = balance;
+            size++;
+        }
+
+        private void delete(int slot) {
+            int entry = findOwner(owners[slot]);
+
+            unlink(slot, entry);
+            ownerBalances[entry] -= values[slot];
+            if(--ownerCounts[entry] == 0) removeOwner(entry);
+            size--;
+
+            // Shift back the entries after the hole that would no longer be reachable from their home slot.
+            int hole = slot;
+            for(int i = (hole + 1) & mask; owners[i] != 0; i = (i + 1) & mask) {
+                int home = home(keys, i * 4);
+
+                boolean reachable = hole <= i ? (home > hole && home <= i) : (home > hole || home <= i);
+                if(!reachable) {
+                    move(i, hole);
+                    hole = i;
+                }
+            }
+
+            owners[hole] = 0;
+        }
+
+        private void unlink(int slot, int entry) {
+            if(prev[slot] != NONE) next[prev[slot]] = next[slot];
+            else ownerHeads[entry] = next[slot];
+
+            if(next[slot] != NONE) prev[next[slot]] = prev[slot];
+        }
+
+        private void move(int from, int to) {
+            System.arraycopy(keys, from * 4, keys, to * 4, 4);
+            System.arraycopy(parents, from * 4, parents, to * 4, 4);
+            values[to] = values[from];
+            owners[to] = owners[from];
+            next[to] = next[from];
+            prev[to] = prev[from];
+
+            // Point the owner's list at the new slot.
+            if(prev[to] != NONE) next[prev[to]] = to;
+            else ownerHeads[findOwner(owners[to])] = to;
+
+            if(next[to] != NONE) prev[next[to]] = to;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldParents = parents;
+            long[] oldValues = values;
+            int[] oldOwners = owners;
+
+            allocate(oldOwners.length * 2);
+            allocateOwners(ownerMask + 1);
+
+            for(int slot = 0; slot < oldOwners.length; slot++) {
+                if(oldOwners[slot] != 0) insert(oldKeys, slot * 4, oldParents, slot * 4, oldValues[slot], oldOwners[slot]);
+            }
+        }
+
+        TransactionOutput materialize(int slot) {
+            return new TransactionOutput(StringUtil.getHashString(keys, slot * 4), ownerKeys[owners[slot]],
+                    values[slot], StringUtil.getHashString(parents, slot * 4));
+        }
+    }
+}
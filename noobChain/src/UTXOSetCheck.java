@@ -0,0 +1,290 @@
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* UTXO SET CHECK:
+    A randomized check of UTXOSet against a plain HashMap, run next to the benchmarks whenever the set's storage or
+    locking changes:
+
+        java UTXOSetCheck [operations=200000] [seed=42] [stripes=1,4,16] [threads=8] [races=2000]
+
+    For every stripe count the same seeded mix of put(), put() over an existing id, remove(), spend() and spend() of a
+    missing or repeated id is applied to the set and to a HashMap, and every result is compared as it comes back. Every
+    COMPARE_EVERY operations the whole set is compared too: size(), forEach(), and getBalance() and getOutputs() for
+    every owner. A quarter of the ids take their first word, which is all Stripe.home() looks at, from only CLUSTERS
+    values, so they pile up in long probe runs and every remove() has to shift entries back across them.
+
+    Then 'threads' threads race 'races' spends over the same few hundred outputs, which are spread over every stripe.
+    Each output must end up spent by at most one winning spend, and the set must hold exactly what the winners left.
+
+    Exits with status 1 on the first difference.
+*/
+public class UTXOSetCheck {
+
+    private static final int OWNERS = 8;
+    private static final int COMPARE_EVERY = 20000; // operations between full comparisons
+    private static final int RACE_OUTPUTS = 256;
+    private static final int CLUSTERS = 64; // first words shared by a quarter of the ids
+
+    private final Map<String, String> options = new HashMap<>();
+    private final Random random;
+    private final Address[] owners = new Address[OWNERS];
+    private final AtomicLong nextId = new AtomicLong();
+
+    private UTXOSetCheck(String[] args) {
+        options.put("operations", "200000");
+        options.put("seed", "42");
+        options.put("stripes", "1,4,16");
+        options.put("threads", "8");
+        options.put("races", "2000");
+
+        for(String arg : args) {
+            int split = arg.indexOf('=');
+            if(split < 0 || !options.containsKey(arg.substring(0, split))) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        random = new Random(Long.parseLong(options.get("seed")));
+        ChainFixture fixture = new ChainFixture(random.nextLong(), OWNERS);
+        for(int i = 0; i < OWNERS; i++) {
+            owners[i] = fixture.wallets[i].address;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+
+        UTXOSetCheck check = new UTXOSetCheck(args);
+        try {
+            for(String stripes : check.options.get("stripes").split(",")) {
+                check.compare(Integer.parseInt(stripes.trim()));
+            }
+            check.race();
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+
+        System.out.println("UTXOSet matches the HashMap");
+    }
+
+    private void compare(int stripeCount) {
+        UTXOSet set = new UTXOSet(stripeCount);
+        HashMap<String, TransactionOutput> expected = new HashMap<>();
+        ArrayList<String> ids = new ArrayList<>(); // every id in 'expected' to pick from, and some already spent
+        int operations = Integer.parseInt(options.get("operations"));
+
+        for(int op = 1; op <= operations; op++) {
+            int kind = random.nextInt(10);
+
+            if(kind < 4 || ids.isEmpty()) {
+                TransactionOutput output = output();
+                check(set.put(output.id, output) == null, "put of a new id returned an output");
+                expected.put(output.id, output);
+                ids.add(output.id);
+            } else if(kind == 4) {
+                String id = ids.get(random.nextInt(ids.size()));
+                TransactionOutput output = new TransactionOutput(id, owner(), value(), newId());
+                same(set.put(id, output), expected.put(id, output), "put over " + id);
+            } else if(kind < 7) {
+                String id = random.nextInt(8) == 0 ? newId() : take(ids, random.nextInt(ids.size()));
+                same(set.remove(id), expected.remove(id), "remove " + id);
+            } else {
+                spend(set, expected, ids);
+            }
+
+            String probe = random.nextBoolean() || ids.isEmpty() ? newId() : ids.get(random.nextInt(ids.size()));
+            same(set.get(probe), expected.get(probe), "get " + probe);
+            check(set.containsKey(probe) == expected.containsKey(probe), "containsKey " + probe);
+
+            if(op % COMPARE_EVERY == 0 || op == operations) {
+                compareAll(set, expected);
+                ids.removeIf(id -> !expected.containsKey(id));
+            }
+        }
+
+        System.out.println(stripeCount + " stripes: " + operations + " operations, " + expected.size() + " outputs left, no differences");
+    }
+
+    private void spend(UTXOSet set, HashMap<String, TransactionOutput> expected, ArrayList<String> ids) {
+        ArrayList<String> spent = new ArrayList<>();
+        for(int i = random.nextInt(4); i > 0 && !ids.isEmpty(); i--) {
+            spent.add(ids.get(random.nextInt(ids.size())));
+        }
+        if(random.nextInt(8) == 0) spent.add(newId()); // not unspent
+        if(random.nextInt(8) == 0 && !spent.isEmpty()) spent.add(spent.get(0)); // listed twice
+
+        ArrayList<TransactionOutput> created = new ArrayList<>();
+        for(int i = random.nextInt(4); i > 0; i--) {
+            created.add(output());
+        }
+
+        boolean valid = new HashSet<>(spent).size() == spent.size() && expected.keySet().containsAll(spent);
+        check(set.spend(spent, created) == valid, "spend of " + spent + " returned " + !valid);
+        if(!valid) return;
+
+        for(String id : spent) {
+            expected.remove(id); // stays in 'ids' for now, picking it again tries a spent output
+        }
+        for(TransactionOutput output : created) {
+            expected.put(output.id, output);
+            ids.add(output.id);
+        }
+    }
+
+    private void race() throws InterruptedException {
+        /* FUNCTION BREAKDOWN:
+            Every thread spends one to three random outputs out of the same small pool and creates one new output per
+            spend, so most spends conflict with another thread's. The spends that return true are collected. No
+            output may be spent by two of them, and the set must end up as the pool minus everything the winners
+            spent plus everything they created, with balances to match.
+         */
+        int threads = Integer.parseInt(options.get("threads"));
+        int races = Integer.parseInt(options.get("races"));
+
+        UTXOSet set = new UTXOSet(16);
+        HashMap<String, TransactionOutput> pool = new HashMap<>();
+        ArrayList<String> poolIds = new ArrayList<>();
+        for(int i = 0; i < RACE_OUTPUTS; i++) {
+            TransactionOutput output = output();
+            set.put(output.id, output);
+            pool.put(output.id, output);
+            poolIds.add(output.id);
+        }
+
+        ConcurrentLinkedQueue<List<String>> wonSpent = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<TransactionOutput> wonCreated = new ConcurrentLinkedQueue<>();
+        CountDownLatch go = new CountDownLatch(1);
+        ArrayList<Thread> racers = new ArrayList<>();
+
+        for(int t = 0; t < threads; t++) {
+            Random threadRandom = new Random(random.nextLong());
+            Thread racer = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                for(int r = 0; r < races / threads; r++) {
+                    ArrayList<String> spent = new ArrayList<>();
+                    for(int i = 1 + threadRandom.nextInt(3); i > 0; i--) {
+                        String id = poolIds.get(threadRandom.nextInt(poolIds.size()));
+                        if(!spent.contains(id)) spent.add(id);
+                    }
+
+                    TransactionOutput created = new TransactionOutput(newId(), owners[threadRandom.nextInt(OWNERS)], 1 + threadRandom.nextInt(1000), newId());
+                    ArrayList<TransactionOutput> createdList = new ArrayList<>();
+                    createdList.add(created);
+
+                    if(set.spend(spent, createdList)) {
+                        wonSpent.add(spent);
+                        wonCreated.add(created);
+                    }
+                }
+            }, "utxo-racer-" + t);
+            racer.start();
+            racers.add(racer);
+        }
+
+        go.countDown();
+        for(Thread racer : racers) racer.join();
+
+        HashMap<String, TransactionOutput> expected = new HashMap<>(pool);
+        for(List<String> spent : wonSpent) {
+            for(String id : spent) {
+                check(expected.remove(id) != null, "output " + id + " was spent by two winning spends");
+            }
+        }
+        for(TransactionOutput created : wonCreated) {
+            expected.put(created.id, created);
+        }
+
+        compareAll(set, expected);
+        System.out.println(threads + " threads: " + wonSpent.size() + " of " + (races / threads * threads)
+                + " racing spends won, every output spent at most once");
+    }
+
+    private void compareAll(UTXOSet set, HashMap<String, TransactionOutput> expected) {
+        check(set.size() == expected.size(), "size " + set.size() + ", expected " + expected.size());
+
+        HashMap<String, TransactionOutput> all = new HashMap<>();
+        set.forEach(output -> check(all.put(output.id, output) == null, "forEach gave " + output.id + " twice"));
+        check(all.size() == expected.size(), "forEach gave " + all.size() + " outputs, expected " + expected.size());
+        for(TransactionOutput output : all.values()) {
+            same(output, expected.get(output.id), "forEach " + output.id);
+        }
+
+        for(Address owner : owners) {
+            long balance = 0;
+            HashMap<String, TransactionOutput> owned = new HashMap<>();
+            for(TransactionOutput output : expected.values()) {
+                if(!output.reciepient.equals(owner)) continue;
+                balance += output.value;
+                owned.put(output.id, output);
+            }
+
+            check(set.getBalance(owner) == balance, "balance " + set.getBalance(owner) + ", expected " + balance);
+
+            Map<String, TransactionOutput> outputs = set.getOutputs(owner);
+            check(outputs.size() == owned.size(), "getOutputs gave " + outputs.size() + " outputs, expected " + owned.size());
+            for(TransactionOutput output : outputs.values()) {
+                same(output, owned.get(output.id), "getOutputs " + output.id);
+            }
+        }
+    }
+
+    private TransactionOutput output() {
+        return new TransactionOutput(newId(), owner(), value(), newId());
+    }
+
+    // A random 64 character hex id. A quarter of them share their first word with others, see the class comment.
+    private String newId() {
+        long first = random.nextInt(4) == 0 ? 0x0123456789ABCDEFL * (1 + random.nextInt(CLUSTERS)) : random.nextLong();
+        return String.format("%016x%016x%016x%016x", first, random.nextLong(), random.nextLong(), nextId.incrementAndGet());
+    }
+
+    private Address owner() {
+        return owners[random.nextInt(OWNERS)];
+    }
+
+    private long value() {
+        return 1 + (long) (random.nextDouble() * 100 * Amount.COIN);
+    }
+
+    // Removes ids[index] by moving the last id into its place.
+    private static String take(ArrayList<String> ids, int index) {
+        String id = ids.get(index);
+        ids.set(index, ids.get(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+        return id;
+    }
+
+    private static void same(TransactionOutput actual, TransactionOutput expected, String what) {
+        if(actual == null || expected == null) {
+            check(actual == expected, what + ": got " + describe(actual) + ", expected " + describe(expected));
+            return;
+        }
+
+        check(actual.id.equals(expected.id) && actual.reciepient.equals(expected.reciepient) && actual.value == expected.value
+                && actual.parentTransactionId.equals(expected.parentTransactionId),
+                what + ": got " + describe(actual) + ", expected " + describe(expected));
+    }
+
+    private static String describe(TransactionOutput output) {
+        return output == null ? "nothing" : output.id + " (" + output.value + " from " + output.parentTransactionId + ")";
+    }
+
+    private static void check(boolean condition, String message) {
+        if(!condition) throw new AssertionError(message);
+    }
+}
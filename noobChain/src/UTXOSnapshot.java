@@ -0,0 +1,248 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/* UTXO SNAPSHOTS:
+    The UTXO set isn't stored anywhere, so after a restart the only way to rebuild it was to replay every transaction
+    in every block from genesis, and startup took longer the longer the chain got. A snapshot is the whole set written
+    to one file, tagged with the height and hash of the block it's the state after:
+
+        int       magic        SNAPSHOT_MAGIC
+        int       height       of the block the snapshot was taken after
+        byte[32]  hash         of that block
+        long      length       payload length in bytes
+        int       crc          CRC32 of the payload
+        byte[]    payload      the outputs, encoded by BlockCodec as an output set
+
+    Files are called utxo-<height>.snap. A snapshot is written to a temporary file, forced to disk and then moved into
+    place, so a crash never leaves a half written snapshot under a real name; only the newest KEEP are kept.
+
+    Loading maps the file read-only and checks the CRC over the mapped bytes before decoding anything, so the file is
+    read sequentially straight from the page cache and never copied onto the heap as a whole.
+
+    restore() rebuilds a node from its BlockStore: the chain is attached to the store without reading any block, and
+    the set is loaded from the newest snapshot whose block is still on the stored chain. replay() then brings it up to
+    date with the blocks after it, the only blocks that are read. A snapshot that doesn't check out is skipped for the
+    one before it, and without any the set is replayed from genesis.
+
+    A snapshot is of the set as it is at the time, so take it when the last block has been added and no other block is
+    being filled: NoobChain.addBlock() does so every NoobChain.snapshotInterval blocks.
+*/
+public class UTXOSnapshot {
+
+    public static final int KEEP = 2; // snapshots kept in the directory, the newest ones
+
+    private static final int SNAPSHOT_MAGIC = 0x5554584F; // "UTXO"
+    private static final int HEADER_SIZE = 4 + 4 + 32 + 8 + 4;
+
+    private static final Metrics.Histogram writeNanos = NoobChain.metrics.histogram("snapshot.writeNanos");
+    private static final Metrics.Histogram loadNanos = NoobChain.metrics.histogram("snapshot.loadNanos");
+
+    public final int height;
+    public final String hash;
+    public final Path file;
+
+    private UTXOSnapshot(int height, String hash, Path file) {
+        this.height = height;
+        this.hash = hash;
+        this.file = file;
+    }
+
+    // Writes 'utxos' as the state after block 'hash' at 'height', then deletes all but the newest KEEP snapshots.
+    public static UTXOSnapshot write(@NotNull Path directory, @NotNull UTXOSet utxos, int height, @NotNull String hash) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+
+        ArrayList<TransactionOutput> outputs = new ArrayList<>(utxos.size());
+        utxos.forEach(outputs::add);
+
+        ByteBuffer payload = encode(outputs);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(SNAPSHOT_MAGIC);
+        header.putInt(height);
+        header.put(StringUtil.getHashBytes(hash));
+        header.putLong(payload.remaining());
+        header.putInt((int) crc.getValue());
+        header.flip();
+
+        Path file = path(directory, height);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while(header.hasRemaining()) channel.write(header);
+            while(payload.hasRemaining()) channel.write(payload);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        List<UTXOSnapshot> snapshots = list(directory);
+        for(int i = KEEP; i < snapshots.size(); i++) {
+            Files.deleteIfExists(snapshots.get(i).file);
+        }
+
+        writeNanos.recordSince(start);
+        return new UTXOSnapshot(height, hash, file);
+    }
+
+    // The snapshots in 'directory', newest first. Only their headers are read.
+    public static List<UTXOSnapshot> list(@NotNull Path directory) throws IOException {
+        if(!Files.isDirectory(directory)) return Collections.emptyList();
+
+        List<Path> files;
+        try(Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().matches("utxo-\\d{10}\\.snap"))
+                    .sorted(Collections.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+
+        ArrayList<UTXOSnapshot> snapshots = new ArrayList<>(files.size());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        byte[] hash = new byte[32];
+
+        for(Path file : files) {
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                header.clear();
+                channel.read(header, 0);
+                header.flip();
+
+                if(header.remaining() < HEADER_SIZE || header.getInt() != SNAPSHOT_MAGIC) continue; // not a snapshot, skip it
+
+                int height = header.getInt();
+                header.get(hash);
+                snapshots.add(new UTXOSnapshot(height, toHashString(hash), file));
+            }
+        }
+
+        return snapshots;
+    }
+
+    // Adds every output in the snapshot to 'utxos'. Throws IOException if the file is damaged, 'utxos' may then hold
+    // some of its outputs.
+    public void load(@NotNull UTXOSet utxos) throws IOException {
+        long start = System.nanoTime();
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size < HEADER_SIZE || size > Integer.MAX_VALUE) throw new IOException("Bad snapshot size " + size + ": " + file);
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if(map.getInt(0) != SNAPSHOT_MAGIC) throw new IOException("Not a UTXO snapshot: " + file);
+
+            long length = map.getLong(4 + 4 + 32);
+            int checksum = map.getInt(4 + 4 + 32 + 8);
+            if(length != size - HEADER_SIZE) throw new IOException("Truncated snapshot: " + file);
+
+            ByteBuffer payload = map.slice(HEADER_SIZE, (int) length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if((int) crc.getValue() != checksum) throw new IOException("Snapshot checksum mismatch: " + file);
+
+            try {
+                new BlockCodec().decodeOutputs(payload, output -> utxos.put(output.id, output));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Undecodable snapshot: " + file, e);
+            }
+        }
+
+        loadNanos.recordSince(start);
+    }
+
+    public static UTXOSnapshot restore(@NotNull BlockStore store, Path directory, @NotNull UTXOSet utxos, @NotNull StoredChain blockchain) throws IOException {
+        /* FUNCTION BREAKDOWN:
+            'blockchain' is attached to the store, so it holds every stored block without any of them being read.
+
+            The snapshots in 'directory' are tried newest first. One is only used if the block it was taken after is
+            still the stored block at its height, which the store's hash index tells without reading the block, so a
+            snapshot of a chain that has since been replaced is never loaded. A damaged snapshot is logged and the
+            next older one is tried.
+
+            Returns the snapshot that was used, or null if there's none and 'utxos' was left empty. Either way 'utxos'
+            still has to be brought up to date with replay().
+         */
+        blockchain.attach(store);
+
+        utxos.clear();
+
+        if(directory != null) {
+            for(UTXOSnapshot snapshot : list(directory)) {
+                if(snapshot.height >= blockchain.size() || store.getHeight(snapshot.hash) != snapshot.height) continue;
+
+                try {
+                    snapshot.load(utxos);
+                    return snapshot;
+                } catch (IOException e) {
+                    NoobChain.log.warn("#Skipping UTXO snapshot: " + e.getMessage());
+                    utxos.clear();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    // Applies the blocks from height 'from' on to 'utxos': each transaction spends its inputs and adds its outputs with
+    // one UTXOSet.spend(), in order, so a transaction may spend an output made earlier in its own block. The blocks
+    // were checked when they were added, so nothing is verified again here; run NoobChain.isChainValid() for that.
+    public static void replay(@NotNull List<Block> blockchain, int from, @NotNull UTXOSet utxos) throws IOException {
+        for(int height = from; height < blockchain.size(); height++) {
+            for(Transaction transaction : blockchain.get(height).transactions) {
+                ArrayList<String> spent = new ArrayList<>();
+                if(transaction.inputs != null) {
+                    for(TransactionInput input : transaction.inputs) {
+                        spent.add(input.transactionOutputId);
+                    }
+                }
+
+                if(!utxos.spend(spent, transaction.outputs)) {
+                    throw new IOException("Block " + height + " spends an output that isn't unspent: " + transaction.transactionId);
+                }
+            }
+        }
+    }
+
+    // Encodes the outputs into a buffer big enough for them, ready to read.
+    private static ByteBuffer encode(List<TransactionOutput> outputs) {
+        BlockCodec codec = new BlockCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(1024, outputs.size() * 80)); // an output takes at most 80 bytes, keys aside
+
+        while(true) {
+            try {
+                codec.encode(outputs, buffer);
+                return buffer.flip();
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    private static Path path(Path directory, int height) {
+        return directory.resolve(String.format("utxo-%010d.snap", height));
+    }
+
+    private static String toHashString(byte[] hash) {
+        ByteBuffer words = ByteBuffer.wrap(hash);
+        return StringUtil.getHashString(new long[] {words.getLong(), words.getLong(), words.getLong(), words.getLong()}, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "UTXO snapshot at height " + height + " (" + hash + ")";
+    }
+}
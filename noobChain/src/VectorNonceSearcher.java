@@ -0,0 +1,146 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/* SIMD NONCE SEARCH:
+    Every nonce attempt runs the same SHA-256 compression over the same midstate, only the nonce word differs. That
+    makes the search a perfect fit for SIMD: each lane of an IntVector holds the state of a different nonce, and one
+    vector instruction advances all of them through the same step of the compression.
+
+    Only the first digest word is computed lane-wise to find candidates. A lane whose first word has enough leading
+    zeros is rechecked with the scalar HeaderHasher, which also leaves the full digest in the header, so the result is
+    bit-for-bit the one Block.calculateHash() gives.
+
+    This class needs the jdk.incubator.vector module. Use NonceSearcher.create() instead of calling the constructor,
+    it falls back to the scalar engine when the module isn't there.
+*/
+public class VectorNonceSearcher implements NonceSearcher {
+
+    private final VectorSpecies<Integer> species;
+    private final int lanes;
+    private final int[] schedule; // 64 message schedule words, 'lanes' ints each
+    private final IntVector laneOffsets; // 0, 1, 2, ... added to the first nonce of a batch
+
+    public VectorNonceSearcher(int lanes) {
+        if(lanes != 4 && lanes != 8 && lanes != 16) {
+            throw new IllegalArgumentException("Lanes must be 4, 8 or 16: " + lanes);
+        }
+
+        this.species = IntVector.SPECIES_PREFERRED.length() >= lanes
+                ? VectorSpecies.of(int.class, VectorShape.forBitSize(lanes * 32))
+                : IntVector.SPECIES_PREFERRED; // don't emulate registers wider than the hardware has
+        this.lanes = species.length();
+        this.schedule = new int[64 * this.lanes];
+
+        int[] offsets = new int[this.lanes];
+        for(int i = 0; i < this.lanes; i++) offsets[i] = i;
+        this.laneOffsets = IntVector.fromArray(species, offsets, 0);
+    }
+
+    public static int getPreferredLanes() {
+        return Math.min(IntVector.SPECIES_PREFERRED.length(), 16);
+    }
+
+    @Override
+    public int getLanes() {
+        return lanes;
+    }
+
+    @Override
+    public long search(HeaderHasher header, int firstNonce, int count, int targetBits) {
+        int[] midstate = header.getMidstate();
+        int[] tail = header.getTail();
+
+        // The top 'zeroBits' bits of the first digest word must be zero for a lane to be a candidate.
+        int zeroBits = Math.min(targetBits, 32);
+
+        int done = 0;
+        for(; done + lanes <= count; done += lanes) {
+            int base = firstNonce + done;
+
+            IntVector first = compressFirstWord(midstate, tail, base);
+
+            VectorMask<Integer> candidates = zeroBits == 0
+                    ? first.compare(VectorOperators.EQ, first)
+                    : first.lanewise(VectorOperators.LSHR, 32 - zeroBits).compare(VectorOperators.EQ, 0);
+
+            if(candidates.anyTrue()) {
+                for(int lane = candidates.firstTrue(); lane < lanes; lane++) {
+                    if(candidates.laneIsSet(lane) && header.meetsTarget(base + lane, targetBits)) return base + lane;
+                }
+            }
+        }
+
+        // Whatever doesn't fill a whole vector is hashed one at a time.
+        for(; done < count; done++) {
+            if(header.meetsTarget(firstNonce + done, targetBits)) return firstNonce + done;
+        }
+
+        return NOT_FOUND;
+    }
+
+    // SHA-256 compression of the header's second block for nonces base .. base + lanes - 1, first output word only.
+    private IntVector compressFirstWord(int[] midstate, int[] tail, int base) {
+        int[] w = schedule;
+
+        for(int t = 0; t < 16; t++) {
+            IntVector word = t == 2
+                    ? laneOffsets.add(base) // the nonce word
+                    : IntVector.broadcast(species, tail[t]);
+            word.intoArray(w, t * lanes);
+        }
+
+        for(int t = 16; t < 64; t++) {
+            IntVector w15 = IntVector.fromArray(species, w, (t - 15) * lanes);
+            IntVector w2 = IntVector.fromArray(species, w, (t - 2) * lanes);
+
+            IntVector s0 = w15.lanewise(VectorOperators.ROR, 7)
+                    .lanewise(VectorOperators.XOR, w15.lanewise(VectorOperators.ROR, 18))
+                    .lanewise(VectorOperators.XOR, w15.lanewise(VectorOperators.LSHR, 3));
+            IntVector s1 = w2.lanewise(VectorOperators.ROR, 17)
+                    .lanewise(VectorOperators.XOR, w2.lanewise(VectorOperators.ROR, 19))
+                    .lanewise(VectorOperators.XOR, w2.lanewise(VectorOperators.LSHR, 10));
+
+            IntVector.fromArray(species, w, (t - 16) * lanes)
+                    .add(s0)
+                    .add(IntVector.fromArray(species, w, (t - 7) * lanes))
+                    .add(s1)
+                    .intoArray(w, t * lanes);
+        }
+
+        IntVector a = IntVector.broadcast(species, midstate[0]);
+        IntVector b = IntVector.broadcast(species, midstate[1]);
+        IntVector c = IntVector.broadcast(species, midstate[2]);
+        IntVector d = IntVector.broadcast(species, midstate[3]);
+        IntVector e = IntVector.broadcast(species, midstate[4]);
+        IntVector f = IntVector.broadcast(species, midstate[5]);
+        IntVector g = IntVector.broadcast(species, midstate[6]);
+        IntVector h = IntVector.broadcast(species, midstate[7]);
+
+        for(int t = 0; t < 64; t++) {
+            IntVector s1 = e.lanewise(VectorOperators.ROR, 6)
+                    .lanewise(VectorOperators.XOR, e.lanewise(VectorOperators.ROR, 11))
+                    .lanewise(VectorOperators.XOR, e.lanewise(VectorOperators.ROR, 25));
+            IntVector ch = e.and(f).lanewise(VectorOperators.XOR, e.not().and(g));
+            IntVector temp1 = h.add(s1).add(ch).add(Sha256.K[t]).add(IntVector.fromArray(species, w, t * lanes));
+            IntVector s0 = a.lanewise(VectorOperators.ROR, 2)
+                    .lanewise(VectorOperators.XOR, a.lanewise(VectorOperators.ROR, 13))
+                    .lanewise(VectorOperators.XOR, a.lanewise(VectorOperators.ROR, 22));
+            IntVector maj = a.and(b).lanewise(VectorOperators.XOR, a.and(c)).lanewise(VectorOperators.XOR, b.and(c));
+            IntVector temp2 = s0.add(maj);
+
+            h = g;
+            g = f;
+            f = e;
+            e = d.add(temp1);
+            d = c;
+            c = b;
+            b = a;
+            a = temp1.add(temp2);
+        }
+
+        return a.add(midstate[0]);
+    }
+}
@@ -1,8 +1,10 @@
 import java.security.*;
-import java.security.spec.ECGenParameterSpec;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 
 /* PACKAGE INFO:
     java.security.spec.ECGenParameterSpec is a class in Java that provides an implementation of the
@@ -19,13 +21,30 @@ public class Wallet {
 
     public PrivateKey privateKey;
     public PublicKey publicKey;
+    public Address address; // the public key as the chain refers to it
 
     public HashMap<String,TransactionOutput> UTXOs = new HashMap<String,TransactionOutput>();
+    private final NavigableSet<TransactionOutput> outputsByValue = CoinSelector.newIndex(); // the same outputs, by value
+
+    public CoinSelector.Strategy coinSelection = CoinSelector.Strategy.BRANCH_AND_BOUND; // how sendFunds() picks its inputs
 
     public Wallet() {
         generateKeyPair();
     }
 
+    // Deterministic wallet: the same seed always gives the same key pair. Meant for benchmarks and load tests.
+    public Wallet(long seed) {
+        try {
+            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+            random.setSeed(seed); // seeding before the first use replaces the system entropy entirely
+
+            generateKeyPair(random);
+
+        }catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void generateKeyPair() {
         /* FUNCTION BREAKDOWN:
             This code generates a new ECDSA key pair, which consists of a public and private key.
@@ -51,80 +70,46 @@ public class Wallet {
             After the key pair is generated, the public and private keys are retrieved from the KeyPair object using
             the getPublic and getPrivate methods and stored in the publicKey and privateKey variables, respectively.
 
+            The KeyPairGenerator and the SecureRandom now belong to the CryptoEngine, which keeps one of each per thread,
+            so making many wallets doesn't look up a new generator and seed a new SHA1PRNG every time.
+
             If an exception occurs during the key generation process, a RuntimeException is thrown.
 
          */
-        try {
-
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("ECDSA","BC");
-
-            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
-
-            ECGenParameterSpec ecSpec = new ECGenParameterSpec("prime192v1");
-
-            // Initialize the key generator and generate a KeyPair
-            keyGen.initialize(ecSpec, random); // 256
+        generateKeyPair(null); // the engine's own per-thread generator and SecureRandom
+    }
 
-            KeyPair keyPair = keyGen.generateKeyPair();
+    // Keys come from the CryptoEngine in use: prime192v1 from Bouncy Castle by default, secp256r1 with the JDK engine.
+    private void generateKeyPair(SecureRandom random) {
+        try {
+            KeyPair keyPair = CryptoEngine.get().generateKeyPair(random);
 
             // Set the public and private keys from the keyPair
             privateKey = keyPair.getPrivate();
             publicKey = keyPair.getPublic();
+            address = Address.of(publicKey);
 
         }catch(Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    public float getBalance() {
+    public long getBalance() {
         /* FUNCTION BREAKDOWN:
-            This function calculates the balance of the current wallet address by iterating through all the unspent
-            transaction outputs (UTXOs) in the UTXO pool of the blockchain and adding up the total value of the outputs
-            that belong to the current wallet address.
+            This function calculates the balance of the current wallet address from the unspent transaction outputs
+            (UTXOs) in the UTXO pool of the blockchain that belong to the current wallet address.
 
             Here are the steps:
 
-            Initialize a variable total to 0 to keep track of the total value of UTXOs that belong to the current wallet
-            address.
-
-            Iterate through all the key-value pairs in the UTXOs map of the NoobChain class using a for loop and the
-            entrySet() method.
-
-            For each key-value pair, get the value, which is a TransactionOutput object representing an unspent
-            transaction output (UTXO).
-
-            Check if the UTXO belongs to the current wallet address by calling the isMine() method of the
-            TransactionOutput class, passing in the publicKey of the current wallet as the argument. This method checks
-            if the public key used to create the UTXO matches the public key of the current wallet.
-
-            If the UTXO belongs to the current wallet address, add it to the UTXOs map of the current wallet by calling
-            the put() method of the UTXOs map of the current wallet, passing in the ID of the UTXO as the key and the
-            UTXO object as the value.
-
-            Add the value of the UTXO to the total variable.
-
-            After iterating through all the UTXOs in the UTXO pool, return the total variable as the balance of the
-            current wallet address.
+            The UTXOs set of the NoobChain class keeps an index of outputs by owner with a running total of their
+            value, so the balance is looked up by the address of the current wallet without looking at anybody
+            else's outputs.
 
          */
-        float total = 0;
-
-        for (Map.Entry<String, TransactionOutput> item: NoobChain.UTXOs.entrySet()){
-
-            TransactionOutput UTXO = item.getValue();
-
-            if(UTXO.isMine(publicKey)) { // if output belongs to me ( if coins belong to me )
-
-                UTXOs.put(UTXO.id,UTXO); // add it to our list of unspent transactions.
-
-                total += UTXO.value ;
-            }
-        }
-
-        return total;
+        return NoobChain.UTXOs.getBalance(address);
     }
 
-    public Transaction sendFunds(PublicKey _recipient, float value ) {
+    public Transaction sendFunds(Address _recipient, long value ) {
         /* FUNCTION BREAKDOWN:
 
             Here are the steps:
@@ -136,13 +121,13 @@ public class Wallet {
 
             The function creates an empty array list of TransactionInput objects to hold the inputs for the transaction.
 
-            The function initializes a variable total to 0 to keep track of the total value of the transaction inputs.
+            The function brings the sender's UTXO pool, and the value-ordered index kept next to it, up to date with
+            the owner index of the chain's UTXOs set.
 
-            The function iterates over all the unspent transaction outputs (UTXOs) in the sender's UTXO pool, and adds
-            each UTXO as a new TransactionInput to the list of inputs for the new transaction.
-
-            As each input is added, the function adds the value of the UTXO to the total variable, and breaks out of
-            the loop if the total is greater than or equal to the value of the funds to be sent.
+            The function asks the CoinSelector which outputs to spend, using the wallet's coinSelection strategy (see
+            CoinSelector), and adds each of them as a new TransactionInput to the list of inputs for the new
+            transaction. It used to take outputs in whatever order the HashMap held them until there was enough, which
+            made for many inputs and a lot of small change.
 
             The function creates a new Transaction object with the sender's public key, recipient's public key, value
             of the funds, and the list of inputs.
@@ -162,35 +147,54 @@ public class Wallet {
          */
 
         if(getBalance() < value) {
-            System.out.println("#Not Enough funds to send transaction. Transaction Discarded.");
+            NoobChain.log.transactionRejected(TransactionStatus.INSUFFICIENT_FUNDS, "#Not Enough funds to send transaction. Transaction Discarded.");
             return null;
         }
 
-        ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
-
-        float total = 0;
+        refreshOutputs(); // add our outputs to our list of unspent transactions.
 
-        for (Map.Entry<String, TransactionOutput> item: UTXOs.entrySet()){
+        List<TransactionOutput> selected = CoinSelector.select(coinSelection, outputsByValue, value);
+        if(selected == null) {
+            NoobChain.log.transactionRejected(TransactionStatus.INSUFFICIENT_FUNDS, "#Not Enough funds to send transaction. Transaction Discarded.");
+            return null;
+        }
 
-            TransactionOutput UTXO = item.getValue();
+        ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
 
-            total += UTXO.value;
+        for (TransactionOutput UTXO : selected){
 
             inputs.add(new TransactionInput(UTXO.id));
-
-            if(total > value) break;
         }
 
-        Transaction newTransaction = new Transaction(publicKey, _recipient , value, inputs);
+        Transaction newTransaction = new Transaction(address, _recipient , value, inputs);
 
         newTransaction.generateSignature(privateKey);
 
-        for(TransactionInput input: inputs){
+        for(TransactionOutput UTXO : selected){
 
-            UTXOs.remove(input.transactionOutputId);
+            UTXOs.remove(UTXO.id);
+            outputsByValue.remove(UTXO);
         }
 
         return newTransaction;
     }
 
+    // Makes the UTXO pool and its index hold exactly our outputs in the chain's UTXOs set.
+    private void refreshOutputs() {
+        Map<String, TransactionOutput> current = NoobChain.UTXOs.getOutputs(address);
+
+        for(Iterator<TransactionOutput> owned = UTXOs.values().iterator(); owned.hasNext(); ) {
+            TransactionOutput UTXO = owned.next();
+
+            if(!current.containsKey(UTXO.id)) {
+                owned.remove(); // spent since we last looked
+                outputsByValue.remove(UTXO);
+            }
+        }
+
+        for(TransactionOutput UTXO : current.values()) {
+            if(UTXOs.putIfAbsent(UTXO.id, UTXO) == null) outputsByValue.add(UTXO);
+        }
+    }
+
 }
\ No newline at end of file